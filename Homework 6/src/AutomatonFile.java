@@ -0,0 +1,586 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+/**
+ * A binary file format for automata, so large automata don't have to be
+ * parsed from the text format (FSA.from(..)) every time they're used.
+ *
+ * Every number is big-endian. A file is a fixed size header followed by
+ * its sections, each of which starts at the offset given in the header:
+ *     header        magic, version, kind, table width, the counts below and
+ *                   the offset of each section (see HEADER_SIZE)
+ *     label         int length, then the label in UTF-8
+ *     symbols       the alphabet, one char per letter
+ *     accept        the accept states as a bit set, one long per 64 states
+ *                   (state q is bit q % 64 of long q / 64)
+ *     names         (states + 1) int offsets into the UTF-8 bytes of the
+ *                   state names that follow them
+ *     transitions   for a DFA, the dense table of CompiledDFA,
+ *                       table[state * symbols + symbol],
+ *                   with 1, 2 or 4 byte entries and -1 for the dead state;
+ *                   for an NFA, sparse rows: (states * symbols + 1) int
+ *                   offsets into the int targets that follow them, so the
+ *                   targets of (q, a) are targets[row[r] .. row[r + 1]) for
+ *                   r = q * symbols + a
+ *
+ * A DFA file is written from its compiled form, so the start state is
+ * always 0 and only reachable states are kept. It can be used straight from
+ * a memory map with map(..), which reads the header and the alphabet and
+ * nothing else: transitions, accept states and names are read from the
+ * mapped file as they are needed. load(..) rebuilds the DFA or NFA object
+ * instead.
+ *
+ * Files are mapped in one piece, so they are limited to 2 GB. Both map(..)
+ * and load(..) check that the sections fit in the file before reading them,
+ * so a corrupt file is reported as an IOException.
+ */
+public final class AutomatonFile {
+
+    // The first four bytes of every file ("FSA" followed by a 0 byte)
+    static final int MAGIC = 0x46534100;
+
+    // The current version of the format, bumped on incompatible changes
+    static final short VERSION = 1;
+
+    // The kinds of automata
+    static final byte KIND_DFA = 0;
+    static final byte KIND_NFA = 1;
+
+    // The layout of the header
+    private static final int VERSION_AT = 4;
+    private static final int KIND_AT = 6;
+    private static final int WIDTH_AT = 7;
+    private static final int STATES_AT = 8;
+    private static final int SYMBOLS_AT = 12;
+    private static final int START_AT = 16;
+    private static final int LABEL_AT = 20;
+    private static final int SYMBOLS_OFFSET_AT = 24;
+    private static final int ACCEPT_AT = 28;
+    private static final int NAMES_AT = 32;
+    private static final int TRANSITIONS_AT = 36;
+    private static final int LENGTH_AT = 40;
+    static final int HEADER_SIZE = 44;
+
+    private AutomatonFile() {
+    }
+
+    /**
+     * Write the given automaton to a file, replacing it if it exists.
+     * @param fsa: A DFA or an NFA
+     * @param file: The file to write
+     * @throws IOException if writing fails
+     */
+    public static void write(FSA fsa, Path file) throws IOException {
+        if (fsa instanceof DFA) {
+            write(((DFA) fsa).compile(), file);
+        } else if (fsa instanceof NFA) {
+            writeNFA((NFA) fsa, file);
+        } else {
+            throw new IllegalArgumentException("Can't write a "
+                    + fsa.getClass().getSimpleName());
+        }
+    }
+
+    /**
+     * Write the given compiled DFA to a file, replacing it if it exists.
+     * @param dfa: The compiled DFA
+     * @param file: The file to write
+     * @throws IOException if writing fails
+     */
+    public static void write(CompiledDFA dfa, Path file) throws IOException {
+        int n = dfa.stateCount();
+        int k = dfa.alphabetSize();
+        int width = n <= Byte.MAX_VALUE ? 1 : n <= Short.MAX_VALUE ? 2 : 4;
+
+        char[] symbols = new char[k];
+        for (int a = 0; a < k; a++) {
+            symbols[a] = dfa.symbolAt(a);
+        }
+        String[] names = new String[n];
+        BitSet accept = new BitSet(n);
+        for (int q = 0; q < n; q++) {
+            names[q] = dfa.stateName(q);
+            accept.set(q, dfa.isAccepting(q));
+        }
+
+        Sections out = new Sections(KIND_DFA, width, n, symbols, 0,
+                dfa.label, accept, names, (long) n * k * width);
+        try (DataOutputStream data = out.open(file)) {
+            for (int q = 0; q < n; q++) {
+                for (int a = 0; a < k; a++) {
+                    int next = dfa.next(q, a);
+                    if (width == 1) data.writeByte(next);
+                    else if (width == 2) data.writeShort(next);
+                    else data.writeInt(next);
+                }
+            }
+        }
+    }
+
+    /*
+     * Helper method to write an NFA with sparse transition rows
+     */
+    private static void writeNFA(NFA nfa, Path file) throws IOException {
+        int n = nfa.states.size();
+        int k = nfa.alphabet.size();
+
+        char[] symbols = new char[k];
+        for (int a = 0; a < k; a++) {
+            symbols[a] = nfa.alphabet.get(a).charAt(0);
+        }
+        // The state ids of the file are the ids of the state table
+        String[] names = nfa.states.names().toArray(new String[0]);
+        BitSet accept = nfa.acceptStates.ids();
+        int start = nfa.startingState == null ? -1
+                : nfa.states.id(nfa.startingState);
+
+        // Collect the rows first, since their offsets come before them
+        int[] rows = new int[n * k + 1];
+        List<Integer> targets = new ArrayList<>();
+        for (int q = 0; q < n; q++) {
+            for (int a = 0; a < k; a++) {
+                List<String> next = nfa.delta(names[q], nfa.alphabet.get(a));
+                if (next != null) {
+                    for (String r : next) {
+                        int id = nfa.states.id(r);
+                        // Transitions to states that were never defined are
+                        // as good as missing
+                        if (id >= 0) targets.add(id);
+                    }
+                }
+                rows[q * k + a + 1] = targets.size();
+            }
+        }
+
+        Sections out = new Sections(KIND_NFA, 4, n, symbols, start,
+                nfa.label, accept, names,
+                4L * (rows.length + targets.size()));
+        try (DataOutputStream data = out.open(file)) {
+            for (int row : rows) {
+                data.writeInt(row);
+            }
+            for (int target : targets) {
+                data.writeInt(target);
+            }
+        }
+    }
+
+    /**
+     * Map a DFA file into memory and match against it directly, without
+     * reading its states or transitions into the heap.
+     * @param file: A file written from a DFA
+     * @return A: CompiledDFA reading the mapped file
+     * @throws IOException if the file can't be read, isn't a DFA file of a
+     *          supported version, or its sections don't fit in it
+     */
+    public static CompiledDFA map(Path file) throws IOException {
+        ByteBuffer buffer = mapFile(file);
+        if (buffer.get(KIND_AT) != KIND_DFA) {
+            throw new IOException(file + " doesn't hold a DFA");
+        }
+        return new MappedTable(buffer);
+    }
+
+    /**
+     * Read an automaton back from a file.
+     * @param file: A file written by write(..)
+     * @return The: DFA or NFA that was written
+     * @throws IOException if the file can't be read, isn't an automaton
+     *          file of a supported version, or is corrupt
+     */
+    public static FSA load(Path file) throws IOException {
+        ByteBuffer buffer = mapFile(file);
+        int n = buffer.getInt(STATES_AT);
+        char[] symbols = readSymbols(buffer);
+        int k = symbols.length;
+        int transitions = buffer.getInt(TRANSITIONS_AT);
+        String[] names = new String[n];
+        for (int q = 0; q < n; q++) {
+            names[q] = readName(buffer, q);
+        }
+
+        boolean deterministic = buffer.get(KIND_AT) == KIND_DFA;
+        FSA fsa = deterministic ? new DFA(readLabel(buffer))
+                : new NFA(readLabel(buffer));
+        // The names are unique, so they're added without FSA.addState(..).
+        // They go in first, so the states keep their ids from the file
+        for (String name : names) {
+            fsa.states.intern(name);
+        }
+        if (deterministic) {
+            DFA dfa = (DFA) fsa;
+            MappedTable table = new MappedTable(buffer);
+            for (int q = 0; q < n; q++) {
+                for (int a = 0; a < k; a++) {
+                    int next = table.next(q, a);
+                    if (next < CompiledDFA.DEAD || next >= n) {
+                        throw corrupt(file, "transition to " + next);
+                    }
+                    if (next != CompiledDFA.DEAD) {
+                        dfa.setDelta(names[q], String.valueOf(symbols[a]),
+                                names[next]);
+                    }
+                }
+            }
+        } else {
+            NFA nfa = (NFA) fsa;
+            int targets = transitions + 4 * (n * k + 1);
+            for (int r = 0; r < n * k; r++) {
+                int from = buffer.getInt(transitions + 4 * r);
+                int to = buffer.getInt(transitions + 4 * (r + 1));
+                if (from < to) {
+                    List<String> next = new ArrayList<>(to - from);
+                    for (int t = from; t < to; t++) {
+                        int target = buffer.getInt(targets + 4 * t);
+                        if (target < 0 || target >= n) {
+                            throw corrupt(file, "transition to " + target);
+                        }
+                        next.add(names[target]);
+                    }
+                    nfa.setDelta(names[r / k], String.valueOf(symbols[r % k]),
+                            next);
+                }
+            }
+        }
+
+        for (char c : symbols) {
+            fsa.alphabet.add(String.valueOf(c));
+        }
+        for (int q = 0; q < n; q++) {
+            if (isAccepting(buffer, q)) fsa.acceptStates.add(names[q]);
+        }
+        int start = buffer.getInt(START_AT);
+        fsa.startingState = start < 0 ? null : names[start];
+        return fsa;
+    }
+
+    /*
+     * Helper method to map a whole file and check its header
+     */
+    private static ByteBuffer mapFile(Path file) throws IOException {
+        ByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(file,
+                StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException(file + " is too large to map");
+            }
+            // The mapping stays valid after the channel is closed
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0,
+                    channel.size());
+        }
+
+        if (buffer.limit() < HEADER_SIZE || buffer.getInt(0) != MAGIC) {
+            throw new IOException(file + " isn't an automaton file");
+        }
+        short version = buffer.getShort(VERSION_AT);
+        if (version != VERSION) {
+            throw new IOException(file + " has unsupported version "
+                    + version);
+        }
+        if (buffer.getInt(LENGTH_AT) != buffer.limit()) {
+            throw new IOException(file + " is truncated");
+        }
+        checkSections(file, buffer);
+        return buffer;
+    }
+
+    /*
+     * Helper method to check that the counts of the header make sense and
+     * that every section, and every offset inside the names and the NFA
+     * rows, lies inside the file, so the readers below never leave the
+     * buffer. The DFA table itself is only checked by load(..), since map(..)
+     * doesn't read it up front
+     */
+    private static void checkSections(Path file, ByteBuffer buffer)
+            throws IOException {
+        byte kind = buffer.get(KIND_AT);
+        int width = buffer.get(WIDTH_AT);
+        int n = buffer.getInt(STATES_AT);
+        int k = buffer.getInt(SYMBOLS_AT);
+        int start = buffer.getInt(START_AT);
+        if (kind != KIND_DFA && kind != KIND_NFA) {
+            throw corrupt(file, "kind " + kind);
+        }
+        if (width != 1 && width != 2 && width != 4
+                || kind == KIND_NFA && width != 4) {
+            throw corrupt(file, "table width " + width);
+        }
+        if (n < 0 || k < 0) {
+            throw corrupt(file, n + " states and " + k + " letters");
+        }
+        // DFA files always start in state 0, see write(CompiledDFA, ..)
+        if (start < -1 || start >= n || kind == KIND_DFA && start != 0) {
+            throw corrupt(file, "start state " + start);
+        }
+
+        int label = buffer.getInt(LABEL_AT);
+        checkRange(file, buffer, "label", label, 4);
+        checkRange(file, buffer, "label", label + 4L, buffer.getInt(label));
+        checkRange(file, buffer, "symbols",
+                buffer.getInt(SYMBOLS_OFFSET_AT), 2L * k);
+        checkRange(file, buffer, "accept states",
+                buffer.getInt(ACCEPT_AT), 8L * ((n + 63L) / 64));
+
+        int names = buffer.getInt(NAMES_AT);
+        long nameBytes = checkOffsets(file, buffer, "names", names, n + 1L);
+        checkRange(file, buffer, "names", names + 4L * (n + 1), nameBytes);
+
+        int transitions = buffer.getInt(TRANSITIONS_AT);
+        long rows = (long) n * k;
+        if (kind == KIND_DFA) {
+            checkRange(file, buffer, "transitions", transitions,
+                    rows * width);
+        } else {
+            long targets = checkOffsets(file, buffer, "transitions",
+                    transitions, rows + 1);
+            checkRange(file, buffer, "transitions",
+                    transitions + 4 * (rows + 1), 4 * targets);
+        }
+    }
+
+    /*
+     * Helper method to check that the given number of bytes from the given
+     * offset lies inside the file
+     */
+    private static void checkRange(Path file, ByteBuffer buffer, String what,
+                                   long at, long bytes) throws IOException {
+        if (at < HEADER_SIZE || bytes < 0 || at + bytes > buffer.limit()) {
+            throw corrupt(file, what + " at " + at + " (" + bytes
+                    + " bytes)");
+        }
+    }
+
+    /*
+     * Helper method to check a section of int offsets, which start at 0 and
+     * never go down
+     * @return The: last offset
+     */
+    private static long checkOffsets(Path file, ByteBuffer buffer,
+                                     String what, int at, long count)
+            throws IOException {
+        checkRange(file, buffer, what, at, 4 * count);
+        int last = 0;
+        for (int i = 0; i < count; i++) {
+            int offset = buffer.getInt(at + 4 * i);
+            if (i == 0 ? offset != 0 : offset < last) {
+                throw corrupt(file, what + " offset " + offset);
+            }
+            last = offset;
+        }
+        return last;
+    }
+
+    /*
+     * Helper method for the error of a file whose header or sections don't
+     * fit together
+     */
+    private static IOException corrupt(Path file, String what) {
+        return new IOException(file + " is corrupt: bad " + what);
+    }
+
+    /*
+     * Helper methods to read the small sections
+     */
+    private static String readLabel(ByteBuffer buffer) {
+        int at = buffer.getInt(LABEL_AT);
+        return readUTF8(buffer, at + 4, buffer.getInt(at));
+    }
+
+    private static char[] readSymbols(ByteBuffer buffer) {
+        char[] symbols = new char[buffer.getInt(SYMBOLS_AT)];
+        int at = buffer.getInt(SYMBOLS_OFFSET_AT);
+        for (int a = 0; a < symbols.length; a++) {
+            symbols[a] = buffer.getChar(at + 2 * a);
+        }
+        return symbols;
+    }
+
+    private static String readName(ByteBuffer buffer, int q) {
+        int at = buffer.getInt(NAMES_AT);
+        int bytes = at + 4 * (buffer.getInt(STATES_AT) + 1);
+        int from = buffer.getInt(at + 4 * q);
+        int to = buffer.getInt(at + 4 * (q + 1));
+        return readUTF8(buffer, bytes + from, to - from);
+    }
+
+    private static String readUTF8(ByteBuffer buffer, int at, int length) {
+        byte[] bytes = new byte[length];
+        ByteBuffer view = buffer.duplicate();
+        view.position(at);
+        view.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static boolean isAccepting(ByteBuffer buffer, int q) {
+        long word = buffer.getLong(buffer.getInt(ACCEPT_AT) + 8 * (q >> 6));
+        return (word >>> (q & 63) & 1) != 0;
+    }
+
+    /*
+     * Writes the header and every section but the transitions, which the
+     * caller writes to the returned stream
+     */
+    private static final class Sections {
+        private final byte kind;
+        private final int width;
+        private final int states;
+        private final char[] symbols;
+        private final int start;
+        private final byte[] label;
+        private final long[] accept;
+        private final byte[][] names;
+        private final long transitionBytes;
+
+        Sections(byte kind, int width, int states, char[] symbols, int start,
+                 String label, BitSet accept, String[] names,
+                 long transitionBytes) {
+            this.kind = kind;
+            this.width = width;
+            this.states = states;
+            this.symbols = symbols;
+            this.start = start;
+            this.label = label == null ? new byte[0]
+                    : label.getBytes(StandardCharsets.UTF_8);
+            // BitSet.toLongArray() drops trailing zero words
+            this.accept = Arrays.copyOf(accept.toLongArray(),
+                    (states + 63) / 64);
+            this.names = new byte[states][];
+            for (int q = 0; q < states; q++) {
+                this.names[q] = names[q].getBytes(StandardCharsets.UTF_8);
+            }
+            this.transitionBytes = transitionBytes;
+        }
+
+        DataOutputStream open(Path file) throws IOException {
+            long nameBytes = 0;
+            for (byte[] name : names) {
+                nameBytes += name.length;
+            }
+            long labelAt = HEADER_SIZE;
+            long symbolsAt = labelAt + 4 + label.length;
+            long acceptAt = symbolsAt + 2L * symbols.length;
+            long namesAt = acceptAt + 8L * accept.length;
+            long transitionsAt = namesAt + 4L * (states + 1) + nameBytes;
+            long length = transitionsAt + transitionBytes;
+            if (length > Integer.MAX_VALUE) {
+                throw new IOException("The automaton is too large to write"
+                        + " as one mappable file");
+            }
+
+            DataOutputStream data = new DataOutputStream(
+                    new BufferedOutputStream(Files.newOutputStream(file),
+                            FSA.BUFFER_SIZE));
+            try {
+                writeHeader(data, labelAt, symbolsAt, acceptAt, namesAt,
+                        transitionsAt, length);
+            } catch (IOException e) {
+                data.close();
+                throw e;
+            }
+            return data;
+        }
+
+        private void writeHeader(DataOutputStream data, long labelAt,
+                                 long symbolsAt, long acceptAt, long namesAt,
+                                 long transitionsAt, long length)
+                throws IOException {
+            data.writeInt(MAGIC);
+            data.writeShort(VERSION);
+            data.writeByte(kind);
+            data.writeByte(width);
+            data.writeInt(states);
+            data.writeInt(symbols.length);
+            data.writeInt(start);
+            data.writeInt((int) labelAt);
+            data.writeInt((int) symbolsAt);
+            data.writeInt((int) acceptAt);
+            data.writeInt((int) namesAt);
+            data.writeInt((int) transitionsAt);
+            data.writeInt((int) length);
+
+            data.writeInt(label.length);
+            data.write(label);
+            for (char c : symbols) {
+                data.writeChar(c);
+            }
+            for (long word : accept) {
+                data.writeLong(word);
+            }
+            int offset = 0;
+            data.writeInt(offset);
+            for (byte[] name : names) {
+                offset += name.length;
+                data.writeInt(offset);
+            }
+            for (byte[] name : names) {
+                data.write(name);
+            }
+        }
+    }
+
+    /*
+     * A compiled DFA that reads everything but its alphabet from a mapped
+     * DFA file
+     */
+    private static final class MappedTable extends CompiledDFA {
+        private final ByteBuffer buffer;
+        private final int states;
+        private final int width;
+        private final int transitions;
+
+        MappedTable(ByteBuffer buffer) {
+            super(readLabel(buffer), null, readSymbols(buffer), null, null);
+            this.buffer = buffer;
+            states = buffer.getInt(STATES_AT);
+            width = buffer.get(WIDTH_AT);
+            transitions = buffer.getInt(TRANSITIONS_AT);
+        }
+
+        @Override
+        public int stateCount() {
+            return states;
+        }
+
+        @Override
+        public String stateName(int state) {
+            return readName(buffer, state);
+        }
+
+        @Override
+        public boolean isAccepting(int state) {
+            return state != DEAD && AutomatonFile.isAccepting(buffer, state);
+        }
+
+        @Override
+        public int next(int state, int symbol) {
+            int i = state * symbols.length + symbol;
+            if (width == 1) return buffer.get(transitions + i);
+            if (width == 2) return buffer.getShort(transitions + 2 * i);
+            return buffer.getInt(transitions + 4 * i);
+        }
+
+        @Override
+        public boolean matches(CharSequence str) {
+            int state = 0;
+            for (int i = 0, n = str.length(); i < n; i++) {
+                int a = symbolOf(str.charAt(i));
+                if (a < 0) return false;
+                state = next(state, a);
+                if (state < 0) return false;
+            }
+            return isAccepting(state);
+        }
+
+        @Override
+        String width() {
+            return "mapped " + (width == 1 ? "byte"
+                    : width == 2 ? "short" : "int");
+        }
+    }
+}
@@ -0,0 +1,115 @@
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+/**
+ * Runs one automaton over a batch of strings in a ForkJoinPool, collecting
+ * the results into a BitSet (bit i is set if string i was accepted).
+ *
+ * The batch is split into slices of a multiple of 64 strings, so each task
+ * writes its own words of the result and no locking is needed. Every task
+ * asks the supplier for its own matcher, so matchers that keep scratch
+ * space (like the state sets of an NFA) are never shared between threads.
+ */
+final class BatchRunner {
+
+    // The number of strings each task runs (a multiple of 64)
+    static final int SLICE = 1024;
+
+    // The number of strings read at a time from an Iterator
+    static final int BATCH = 64 * SLICE;
+
+    private BatchRunner() {
+    }
+
+    /**
+     * Run every string of the list.
+     * @param strings: The strings to run
+     * @param matchers: Creates a matcher for one task's use
+     * @param pool: The pool to run the tasks in
+     * @return A: BitSet where bit i is set if strings.get(i) was accepted
+     */
+    static BitSet run(List<? extends CharSequence> strings,
+                      Supplier<Predicate<CharSequence>> matchers,
+                      ForkJoinPool pool) {
+        long[] words = new long[(strings.size() + 63) / 64];
+        pool.invoke(new SliceTask(strings, matchers, words, 0,
+                strings.size()));
+        return BitSet.valueOf(words);
+    }
+
+    /**
+     * Run every string the iterator produces, reading BATCH strings at a
+     * time so only one batch is held in memory.
+     * @param strings: The strings to run
+     * @param matchers: Creates a matcher for one task's use
+     * @param pool: The pool to run the tasks in
+     * @return A: BitSet where bit i is set if the i-th string was accepted
+     */
+    static BitSet run(Iterator<? extends CharSequence> strings,
+                      Supplier<Predicate<CharSequence>> matchers,
+                      ForkJoinPool pool) {
+        BitSet results = new BitSet();
+        List<CharSequence> batch = new ArrayList<>(BATCH);
+        int offset = 0;
+        while (strings.hasNext()) {
+            batch.clear();
+            while (batch.size() < BATCH && strings.hasNext()) {
+                batch.add(strings.next());
+            }
+
+            // Shift the batch's results into place
+            BitSet partial = run(batch, matchers, pool);
+            for (int i = partial.nextSetBit(0); i >= 0;
+                 i = partial.nextSetBit(i + 1)) {
+                results.set(offset + i);
+            }
+            offset += batch.size();
+        }
+        return results;
+    }
+
+    /*
+     * Runs strings [from, to), splitting in half on multiples of 64 until the
+     * range is at most one slice long
+     */
+    private static final class SliceTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final List<? extends CharSequence> strings;
+        private final Supplier<Predicate<CharSequence>> matchers;
+        private final long[] words;
+        private final int from;
+        private final int to;
+
+        SliceTask(List<? extends CharSequence> strings,
+                  Supplier<Predicate<CharSequence>> matchers, long[] words,
+                  int from, int to) {
+            this.strings = strings;
+            this.matchers = matchers;
+            this.words = words;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= SLICE) {
+                Predicate<CharSequence> matcher = matchers.get();
+                for (int i = from; i < to; i++) {
+                    if (matcher.test(strings.get(i))) {
+                        words[i >> 6] |= 1L << i;
+                    }
+                }
+                return;
+            }
+
+            // Split on a word boundary so the halves never share a word
+            int middle = from + (((to - from) / 2) & ~63);
+            invokeAll(new SliceTask(strings, matchers, words, from, middle),
+                    new SliceTask(strings, matchers, words, middle, to));
+        }
+    }
+}
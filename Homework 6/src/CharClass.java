@@ -0,0 +1,251 @@
+import java.util.*;
+
+/**
+ * An immutable set of Unicode code points, stored as a sorted list of
+ * disjoint, non-adjacent intervals.
+ *
+ * Character classes are used as transition labels by symbolic automata
+ * (see SFA), so a single transition can stand for an arbitrarily large
+ * range of letters instead of one entry per letter.
+ *
+ * The intervals are packed into one array as
+ *     { lo_0, hi_0, lo_1, hi_1, ..., lo_n, hi_n }
+ * with inclusive bounds and lo_0 <= hi_0 < hi_0 + 1 < lo_1 <= ...
+ */
+public final class CharClass {
+
+    // The largest Unicode code point
+    public static final int MAX_CODE_POINT = Character.MAX_CODE_POINT;
+
+    // The class containing nothing
+    public static final CharClass EMPTY = new CharClass(new int[0]);
+
+    // The class containing every code point
+    public static final CharClass ALL =
+            new CharClass(new int[] { 0, MAX_CODE_POINT });
+
+    // The packed intervals
+    private final int[] bounds;
+
+    /*
+     * Wrap an already normalized array of bounds
+     */
+    private CharClass(int[] bounds) {
+        this.bounds = bounds;
+    }
+
+    /**
+     * Create a class for the interval [lo, hi].
+     * @param lo: The first code point in the interval
+     * @param hi: The last code point in the interval (inclusive)
+     * @return The: class for the interval, empty if hi < lo
+     */
+    public static CharClass range(int lo, int hi) {
+        lo = Math.max(lo, 0);
+        hi = Math.min(hi, MAX_CODE_POINT);
+        if (hi < lo) return EMPTY;
+        return new CharClass(new int[] { lo, hi });
+    }
+
+    /**
+     * Create a class for a single code point.
+     */
+    public static CharClass of(int codePoint) {
+        return range(codePoint, codePoint);
+    }
+
+    /**
+     * Create a class containing every code point in the given String.
+     */
+    public static CharClass of(String letters) {
+        CharClass c = EMPTY;
+        for (int i = 0; i < letters.length(); ) {
+            int cp = letters.codePointAt(i);
+            c = c.union(of(cp));
+            i += Character.charCount(cp);
+        }
+        return c;
+    }
+
+    /**
+     * @return The: number of intervals in the class
+     */
+    public int intervalCount() {
+        return bounds.length / 2;
+    }
+
+    /**
+     * @return The: first code point of the i-th interval
+     */
+    public int lo(int i) {
+        return bounds[2 * i];
+    }
+
+    /**
+     * @return The: last code point of the i-th interval
+     */
+    public int hi(int i) {
+        return bounds[2 * i + 1];
+    }
+
+    /**
+     * @return True: if the class contains no code points
+     */
+    public boolean isEmpty() {
+        return bounds.length == 0;
+    }
+
+    /**
+     * Check if the class contains the given code point, by binary search over
+     * the intervals.
+     */
+    public boolean contains(int codePoint) {
+        int low = 0;
+        int high = intervalCount() - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (codePoint < bounds[2 * mid]) {
+                high = mid - 1;
+            } else if (codePoint > bounds[2 * mid + 1]) {
+                low = mid + 1;
+            } else {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return The: set of code points in either class
+     */
+    public CharClass union(CharClass other) {
+        if (isEmpty()) return other;
+        if (other.isEmpty()) return this;
+
+        // Merge the two interval lists by their lower bounds
+        int[] merged = new int[bounds.length + other.bounds.length];
+        int n = 0;
+        int i = 0;
+        int j = 0;
+        while (i < bounds.length || j < other.bounds.length) {
+            int lo;
+            int hi;
+            if (j >= other.bounds.length
+                    || (i < bounds.length && bounds[i] <= other.bounds[j])) {
+                lo = bounds[i];
+                hi = bounds[i + 1];
+                i += 2;
+            } else {
+                lo = other.bounds[j];
+                hi = other.bounds[j + 1];
+                j += 2;
+            }
+            // Extend the last interval if the new one overlaps or touches it
+            if (n > 0 && lo <= merged[n - 1] + 1) {
+                merged[n - 1] = Math.max(merged[n - 1], hi);
+            } else {
+                merged[n++] = lo;
+                merged[n++] = hi;
+            }
+        }
+
+        return new CharClass(Arrays.copyOf(merged, n));
+    }
+
+    /**
+     * @return The: set of code points in both classes
+     */
+    public CharClass intersect(CharClass other) {
+        int[] common = new int[bounds.length + other.bounds.length];
+        int n = 0;
+        int i = 0;
+        int j = 0;
+        while (i < bounds.length && j < other.bounds.length) {
+            int lo = Math.max(bounds[i], other.bounds[j]);
+            int hi = Math.min(bounds[i + 1], other.bounds[j + 1]);
+            if (lo <= hi) {
+                common[n++] = lo;
+                common[n++] = hi;
+            }
+            // Move past whichever interval ends first
+            if (bounds[i + 1] < other.bounds[j + 1]) {
+                i += 2;
+            } else {
+                j += 2;
+            }
+        }
+
+        return n == 0 ? EMPTY : new CharClass(Arrays.copyOf(common, n));
+    }
+
+    /**
+     * @return The: set of code points not in this class
+     */
+    public CharClass complement() {
+        int[] gaps = new int[bounds.length + 2];
+        int n = 0;
+        int next = 0;
+        for (int i = 0; i < bounds.length; i += 2) {
+            if (bounds[i] > next) {
+                gaps[n++] = next;
+                gaps[n++] = bounds[i] - 1;
+            }
+            next = bounds[i + 1] + 1;
+        }
+        if (next <= MAX_CODE_POINT) {
+            gaps[n++] = next;
+            gaps[n++] = MAX_CODE_POINT;
+        }
+
+        return n == 0 ? EMPTY : new CharClass(Arrays.copyOf(gaps, n));
+    }
+
+    /**
+     * @return The: set of code points in this class but not the other
+     */
+    public CharClass minus(CharClass other) {
+        return intersect(other.complement());
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof CharClass
+                && Arrays.equals(bounds, ((CharClass) o).bounds);
+    }
+
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode(bounds);
+    }
+
+    /**
+     * Format the class in the usual bracket notation, e.g. [a-z0-9_]
+     */
+    @Override
+    public String toString() {
+        StringBuilder output = new StringBuilder("[");
+        for (int i = 0; i < bounds.length; i += 2) {
+            appendCodePoint(output, bounds[i]);
+            if (bounds[i + 1] > bounds[i]) {
+                output.append('-');
+                appendCodePoint(output, bounds[i + 1]);
+            }
+        }
+        output.append(']');
+
+        return output.toString();
+    }
+
+    /*
+     * Helper method to print printable code points as themselves and
+     * everything else as an escape
+     */
+    private static void appendCodePoint(StringBuilder output, int cp) {
+        if (cp > ' ' && cp < 0x7F && cp != '-' && cp != '[' && cp != ']'
+                && cp != '\\') {
+            output.appendCodePoint(cp);
+        } else {
+            output.append(String.format("\\u{%X}", cp));
+        }
+    }
+}
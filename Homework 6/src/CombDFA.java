@@ -0,0 +1,189 @@
+import java.util.*;
+
+/**
+ * A compiled DFA whose transition table is compressed by row displacement
+ * (the "comb" tables of yacc and lex), for automata with large alphabets
+ * where most transitions of a state go to the same place, usually the dead
+ * state.
+ *
+ * Each state q keeps a default target, the one most of its transitions
+ * lead to, so only the other transitions of the row need to be stored. The
+ * rows are then overlapped in one shared pair of arrays, each shifted by an
+ * offset base[q] that lands its entries on slots no other row uses, like
+ * the teeth of combs slid into each other:
+ *     G(q, a) = next[base[q] + a]   if check[base[q] + a] == q
+ *               default[q]          otherwise
+ * The check array tells which row owns a slot, so a lookup is still two
+ * loads and a compare, whatever the size of the alphabet.
+ *
+ * The offsets are picked first fit, with the fullest rows placed first
+ * (they're the hardest to fit once the arrays fill up). For a lexer with a
+ * few hundred states over a 100 letter alphabet, which is mostly dead
+ * transitions, this stores a few slots per state instead of a full row.
+ */
+final class CombDFA extends CompiledDFA {
+
+    // The offset of each row in next and check
+    private final int[] base;
+
+    // The target of each state's omitted transitions
+    private final int[] defaults;
+
+    // The stored transitions, and the state owning each slot (-1 if none)
+    // * Padded so that base[q] + a is in range for every letter a
+    private final int[] next;
+    private final int[] check;
+
+    // The number of slots holding a transition
+    private final int used;
+
+    private CombDFA(CompiledDFA table, int[] base, int[] defaults,
+                    int[] next, int[] check, int used) {
+        super(table.label, table.stateNames, table.symbols, table.accepting,
+                table.kinds);
+        this.base = base;
+        this.defaults = defaults;
+        this.next = next;
+        this.check = check;
+        this.used = used;
+    }
+
+    /**
+     * Compress the table of a compiled DFA.
+     * @param table: A matcher backed by arrays (as made by
+     *             CompiledDFA.compile(..))
+     * @return An: equivalent matcher using a comb table
+     */
+    static CombDFA of(CompiledDFA table) {
+        int n = table.stateCount();
+        int k = table.alphabetSize();
+
+        // Pick the default of every row, and collect the letters it doesn't
+        // cover
+        int[] defaults = new int[n];
+        int[][] entries = new int[n][];
+        Map<Integer, Integer> counts = new HashMap<>();
+        int[] row = new int[k];
+        for (int q = 0; q < n; q++) {
+            counts.clear();
+            int best = DEAD;
+            int bestCount = 0;
+            for (int a = 0; a < k; a++) {
+                row[a] = table.next(q, a);
+                int count = counts.merge(row[a], 1, Integer::sum);
+                // Ties go to the dead state, then to the first seen
+                if (count > bestCount || (count == bestCount
+                        && row[a] == DEAD)) {
+                    best = row[a];
+                    bestCount = count;
+                }
+            }
+            defaults[q] = best;
+            int[] letters = new int[k - bestCount];
+            int size = 0;
+            for (int a = 0; a < k; a++) {
+                if (row[a] != best) letters[size++] = a;
+            }
+            entries[q] = letters;
+        }
+
+        // Place the fullest rows first
+        Integer[] order = new Integer[n];
+        for (int q = 0; q < n; q++) {
+            order[q] = q;
+        }
+        Arrays.sort(order, (p, q) -> entries[q].length - entries[p].length);
+
+        int[] base = new int[n];
+        BitSet taken = new BitSet();
+        int used = 0;
+        int top = 0;
+        for (int q : order) {
+            int[] letters = entries[q];
+            if (letters.length == 0) continue;
+            base[q] = fit(letters, taken);
+            for (int a : letters) {
+                taken.set(base[q] + a);
+            }
+            used += letters.length;
+            top = Math.max(top, base[q]);
+        }
+
+        // Fill in the slots, with room for any letter past the last base
+        int[] next = new int[top + k];
+        int[] check = new int[top + k];
+        Arrays.fill(check, -1);
+        for (int q = 0; q < n; q++) {
+            for (int a : entries[q]) {
+                next[base[q] + a] = table.next(q, a);
+                check[base[q] + a] = q;
+            }
+        }
+
+        return new CombDFA(table, base, defaults, next, check, used);
+    }
+
+    /*
+     * Helper method to find the lowest offset at which every letter of the
+     * row lands on a free slot. Only offsets putting the first letter on a
+     * free slot can work, so those are the only ones tried
+     */
+    private static int fit(int[] letters, BitSet taken) {
+        int first = letters[0];
+        for (int slot = taken.nextClearBit(first); ; slot =
+                taken.nextClearBit(slot + 1)) {
+            int offset = slot - first;
+            boolean fits = true;
+            for (int j = 1; j < letters.length && fits; j++) {
+                fits = !taken.get(offset + letters[j]);
+            }
+            if (fits) return offset;
+        }
+    }
+
+    @Override
+    public int next(int state, int symbol) {
+        int slot = base[state] + symbol;
+        return check[slot] == state ? next[slot] : defaults[state];
+    }
+
+    @Override
+    public boolean matches(CharSequence str) {
+        // Keep everything the loop touches in locals
+        final int[] b = base;
+        final int[] d = defaults;
+        final int[] nxt = next;
+        final int[] chk = check;
+        final int[] ids = symbolIds;
+        final byte[] stateKinds = kinds;
+        final boolean settles = absorbing;
+        int state = 0;
+        for (int i = 0, n = str.length(); i < n; i++) {
+            char c = str.charAt(i);
+            int a = c < ids.length ? ids[c] : -1;
+            // Leaving the alphabet or the live states means rejection
+            if (a < 0) return false;
+            int slot = b[state] + a;
+            state = chk[slot] == state ? nxt[slot] : d[state];
+            if (state < 0) return false;
+            // The rest only has to stay inside the alphabet
+            if (settles && stateKinds[state] == StateAnalysis.ABSORBING) {
+                return restInAlphabet(str, i + 1);
+            }
+        }
+        return accepting[state];
+    }
+
+    /**
+     * @return The: number of ints the compressed table takes, against
+     *          stateCount() * alphabetSize() for a dense one
+     */
+    int tableSize() {
+        return 2 * base.length + 2 * next.length;
+    }
+
+    @Override
+    String width() {
+        return String.format("comb (%d of %d slots used)", used, next.length);
+    }
+}
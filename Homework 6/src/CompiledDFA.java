@@ -0,0 +1,659 @@
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * An immutable, table-driven matcher compiled from a DFA.
+ *
+ * Compiling numbers the reachable states of the DFA densely (the start state
+ * is always 0) and numbers the alphabet by the order it was defined in, so
+ * the whole transition function fits in one flat row-major table indexed by
+ *     table[state * alphabetSize + symbol].
+ * The table is stored with the narrowest element type (byte, short or int)
+ * that can hold every state id, which keeps small automata inside the cache.
+ *
+ * Missing transitions and characters outside of the alphabet lead to the
+ * implicit dead state DEAD, which can never reach an accept state.
+ */
+public abstract class CompiledDFA {
+
+    // The id of the implicit dead state
+    public static final int DEAD = -1;
+
+    // The label of the DFA this matcher was compiled from
+    protected final String label;
+
+    // The names of the states, indexed by state id
+    // * Null for matchers that aren't backed by arrays, which override
+    //   stateCount(), stateName(..) and isAccepting(..) instead
+    protected final String[] stateNames;
+
+    // The alphabet, indexed by symbol id
+    protected final char[] symbols;
+
+    // Maps a character to its symbol id, or -1 if it isn't in the alphabet
+    // * Covers every character from 0 up to the largest symbol
+    protected final int[] symbolIds;
+
+    // Flags for the accept states, indexed by state id (or null, as above)
+    protected final boolean[] accepting;
+
+    // The kind of each state (see StateAnalysis), or null if unknown
+    protected final byte[] kinds;
+
+    // Whether any state is absorbing, so runs need to check for them
+    protected final boolean absorbing;
+
+    /*
+     * Shared constructor for the different table widths
+     */
+    CompiledDFA(String label, String[] stateNames, char[] symbols,
+                boolean[] accepting, byte[] kinds) {
+        this.label = label;
+        this.stateNames = stateNames;
+        this.symbols = symbols;
+        this.accepting = accepting;
+        this.kinds = kinds;
+
+        boolean any = false;
+        if (kinds != null) {
+            for (byte kind : kinds) {
+                any |= kind == StateAnalysis.ABSORBING;
+            }
+        }
+        absorbing = any;
+
+        // Find the largest symbol so the lookup covers every letter
+        int maxSymbol = -1;
+        for (char c : symbols) {
+            maxSymbol = Math.max(maxSymbol, c);
+        }
+        symbolIds = new int[maxSymbol + 1];
+        Arrays.fill(symbolIds, -1);
+        for (int a = 0; a < symbols.length; a++) {
+            symbolIds[symbols[a]] = a;
+        }
+    }
+
+    /**
+     * Compile the given DFA into a dense table matcher.
+     *
+     * Only the states reachable from the start state are compiled, numbered
+     * in breadth-first order.
+     * @param d: The DFA to be compiled
+     * @return An: equivalent matcher using the narrowest table that fits
+     */
+    public static CompiledDFA compile(DFA d) {
+        // Number the alphabet, skipping epsilon since a DFA never reads it
+        StringBuilder letters = new StringBuilder();
+        List<String> letterNames = new ArrayList<>();
+        for (String a : d.alphabet) {
+            if (!a.equals(FSA.EPSILON) && !letterNames.contains(a)) {
+                letterNames.add(a);
+                letters.append(a.charAt(0));
+            }
+        }
+        char[] symbols = letters.toString().toCharArray();
+        int k = symbols.length;
+
+        // Number the reachable states breadth first, starting with q_0
+        Map<String, Integer> ids = new HashMap<>();
+        List<String> names = new ArrayList<>();
+        // Transitions are collected as they're found, since we don't know
+        // the final number of states (and so the table width) yet
+        List<int[]> rows = new ArrayList<>();
+        // * A DFA without a start state compiles to a single rejecting state
+        ids.put(d.startingState, 0);
+        names.add(d.startingState == null ? "q0" : d.startingState);
+        for (int q = 0; q < names.size(); q++) {
+            int[] row = new int[k];
+            for (int a = 0; a < k; a++) {
+                String next = d.startingState == null ? null
+                        : d.delta(names.get(q), letterNames.get(a));
+                if (next == null) {
+                    // Undefined transitions fall into the dead state
+                    row[a] = DEAD;
+                } else {
+                    Integer id = ids.get(next);
+                    if (id == null) {
+                        // Register the newly discovered state
+                        id = names.size();
+                        ids.put(next, id);
+                        names.add(next);
+                    }
+                    row[a] = id;
+                }
+            }
+            rows.add(row);
+        }
+
+        // Mark the accept states
+        boolean[] accepting = new boolean[names.size()];
+        for (int q = 0; q < names.size(); q++) {
+            accepting[q] = d.acceptStates.contains(names.get(q));
+        }
+
+        // Flatten the rows into a single table
+        int[] table = new int[names.size() * k];
+        for (int q = 0; q < rows.size(); q++) {
+            System.arraycopy(rows.get(q), 0, table, q * k, k);
+        }
+
+        return fromTable(d.label, names.toArray(new String[0]), symbols,
+                table, accepting);
+    }
+
+    /*
+     * Helper method to pick the narrowest table that can hold the given
+     * transitions, which are laid out as table[state * symbols.length + a]
+     *
+     * The states are classified first (see StateAnalysis), and transitions
+     * into dead ends are sent to DEAD instead, so runs stop at the first
+     * character after which nothing can be accepted, with no extra checks.
+     */
+    static CompiledDFA fromTable(String label, String[] stateNames,
+                                 char[] symbols, int[] table,
+                                 boolean[] accepting) {
+        byte[] kinds = StateAnalysis.classify(table, stateNames.length,
+                symbols.length, accepting);
+        for (int i = 0; i < table.length; i++) {
+            if (table[i] >= 0 && kinds[table[i]] == StateAnalysis.DEAD_END) {
+                table[i] = DEAD;
+            }
+        }
+
+        // The dead state takes -1, so every width keeps its sign bit for it
+        if (stateNames.length <= Byte.MAX_VALUE) {
+            byte[] narrow = new byte[table.length];
+            for (int i = 0; i < table.length; i++) {
+                narrow[i] = (byte) table[i];
+            }
+            return new ByteTable(label, stateNames, symbols, accepting,
+                    narrow, kinds);
+        } else if (stateNames.length <= Short.MAX_VALUE) {
+            short[] narrow = new short[table.length];
+            for (int i = 0; i < table.length; i++) {
+                narrow[i] = (short) table[i];
+            }
+            return new ShortTable(label, stateNames, symbols, accepting,
+                    narrow, kinds);
+        } else {
+            return new IntTable(label, stateNames, symbols, accepting, table,
+                    kinds);
+        }
+    }
+
+    /**
+     * @return The: id of the start state
+     */
+    public int startState() {
+        return 0;
+    }
+
+    /**
+     * @return The: number of states, not counting the implicit dead state
+     */
+    public int stateCount() {
+        return stateNames.length;
+    }
+
+    /**
+     * @return The: number of letters in the alphabet
+     */
+    public int alphabetSize() {
+        return symbols.length;
+    }
+
+    /**
+     * Find the symbol id of the given character.
+     * @param c: The input character
+     * @return The: index of c in the alphabet, or -1 if c isn't in it
+     */
+    public int symbolOf(char c) {
+        return c < symbolIds.length ? symbolIds[c] : -1;
+    }
+
+    /**
+     * @param symbol: A symbol id
+     * @return The: letter of the alphabet with the given id
+     */
+    public char symbolAt(int symbol) {
+        return symbols[symbol];
+    }
+
+    /**
+     * @param state: A state id
+     * @return The: name the state had in the original DFA
+     */
+    public String stateName(int state) {
+        return stateNames[state];
+    }
+
+    /**
+     * @param state: A state id, or DEAD
+     * @return True: if the state is an accept state
+     */
+    public boolean isAccepting(int state) {
+        return state != DEAD && accepting[state];
+    }
+
+    /**
+     * @param state: A state id, or DEAD
+     * @return True: if no accept state can be reached from the state, so
+     *          the input will be rejected whatever comes next
+     */
+    public boolean isDeadEnd(int state) {
+        return state == DEAD
+                || (kinds != null && kinds[state] == StateAnalysis.DEAD_END);
+    }
+
+    /**
+     * @param state: A state id, or DEAD
+     * @return True: if the state accepts every continuation made up of
+     *          letters of the alphabet
+     */
+    public boolean isAbsorbing(int state) {
+        return state != DEAD && kinds != null
+                && kinds[state] == StateAnalysis.ABSORBING;
+    }
+
+    /*
+     * Helper method for runs that reached an absorbing state: the input is
+     * accepted if str[from..] only has letters of the alphabet
+     */
+    protected final boolean restInAlphabet(CharSequence str, int from) {
+        for (int i = from, n = str.length(); i < n; i++) {
+            if (symbolOf(str.charAt(i)) < 0) return false;
+        }
+        return true;
+    }
+
+    /**
+     * The transition function on symbol ids.
+     * @param state: A live state id
+     * @param symbol: A symbol id
+     * @return The: next state id, or DEAD
+     */
+    public abstract int next(int state, int symbol);
+
+    /**
+     * The transition function on characters.
+     * @param state: A state id, or DEAD
+     * @param c: The input character
+     * @return The: next state id, or DEAD
+     */
+    public int step(int state, char c) {
+        int a = symbolOf(c);
+        if (state == DEAD || a < 0) return DEAD;
+        return next(state, a);
+    }
+
+    /**
+     * Run the matcher on the given characters without allocating.
+     * @param str: The input to be matched
+     * @return True: if the input is accepted
+     */
+    public abstract boolean matches(CharSequence str);
+
+    /**
+     * Start a cursor that runs the matcher over input given a piece at a
+     * time (see MatcherCursor).
+     * @return A: cursor at the start state
+     */
+    public MatcherCursor cursor() {
+        return new DFACursor(this);
+    }
+
+    /**
+     * Search the text for the leftmost substring this matcher accepts (see
+     * Searcher).
+     * @param text: The text to search
+     * @param from: The index to start searching at
+     * @param kind: Which match to report from the leftmost start
+     * @return The: match, or null if no substring starting at or after
+     *          'from' is accepted
+     */
+    public Match find(CharSequence text, int from, MatchKind kind) {
+        return new Searcher(this, text, from, kind).find(from);
+    }
+
+    /**
+     * Lazily find every match in the text from left to right, without
+     * overlaps (see Searcher).
+     * @param text: The text to search
+     * @param kind: Which match to report from each leftmost start
+     * @return An: iterator over the matches
+     */
+    public Iterator<Match> findAll(CharSequence text, MatchKind kind) {
+        return new Searcher(this, text, 0, kind);
+    }
+
+    /**
+     * Find every word this matcher accepts within the given number of
+     * edits of the query (see LevenshteinAutomaton).
+     * @param query: The word to look up
+     * @param distance: The largest number of insertions, deletions and
+     *                substitutions allowed
+     * @return The: accepted words close enough to the query, sorted
+     */
+    public List<String> wordsWithin(CharSequence query, int distance) {
+        return LevenshteinAutomaton.forDistance(distance).search(this, query);
+    }
+
+    /**
+     * Run the matcher on a long input using every core of the common
+     * ForkJoinPool (see ParallelMatcher). Short inputs are run sequentially.
+     * @param str: The input to be matched
+     * @return True: if the input is accepted
+     */
+    public boolean matchesParallel(CharSequence str) {
+        return matchesParallel(str, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Run the matcher on a long input, splitting it into chunks that are
+     * run in the given pool (see ParallelMatcher).
+     * @param str: The input to be matched
+     * @param pool: The pool to run the chunks on
+     * @return True: if the input is accepted
+     */
+    public boolean matchesParallel(CharSequence str, ForkJoinPool pool) {
+        return ParallelMatcher.matches(this, str, pool);
+    }
+
+    /**
+     * Run the matcher on everything that can be read from the given Reader,
+     * one fixed-size buffer at a time (see FSA.runStream(..)).
+     * @param in: A source of characters, which is not closed
+     * @return The: result, with the number of characters read before it
+     *          was decided
+     * @throws IOException if reading fails
+     */
+    public RunResult runStream(Reader in) throws IOException {
+        char[] buffer = new char[FSA.BUFFER_SIZE];
+        int state = startState();
+        // Don't read anything if nothing can be accepted
+        if (isDeadEnd(state)) return new RunResult(false, 0);
+        boolean settled = isAbsorbing(state);
+        long consumed = 0;
+        int read;
+        while ((read = in.read(buffer)) >= 0) {
+            for (int i = 0; i < read; i++) {
+                // Once absorbed, only letters outside the alphabet matter
+                if (settled) {
+                    if (symbolOf(buffer[i]) >= 0) continue;
+                    return new RunResult(false, consumed + i + 1);
+                }
+                state = step(state, buffer[i]);
+                if (state == DEAD) {
+                    // Stop reading, nothing after this can be accepted
+                    return new RunResult(false, consumed + i + 1);
+                }
+                settled = absorbing && isAbsorbing(state);
+            }
+            consumed += read;
+        }
+
+        return new RunResult(isAccepting(state), consumed);
+    }
+
+    /**
+     * Run the matcher on every byte that can be read from the given
+     * channel, reading each byte as the character with the same value (see
+     * FSA.runBytes(..)).
+     * @param in: A source of bytes, which is not closed
+     * @return The: result, with the number of bytes read before it was
+     *          decided
+     * @throws IOException if reading fails
+     */
+    public RunResult runBytes(ReadableByteChannel in) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(FSA.BUFFER_SIZE);
+        int state = startState();
+        if (isDeadEnd(state)) return new RunResult(false, 0);
+        boolean settled = isAbsorbing(state);
+        long consumed = 0;
+        while (in.read(buffer) >= 0) {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                char c = (char) (buffer.get() & 0xFF);
+                consumed++;
+                if (settled) {
+                    if (symbolOf(c) >= 0) continue;
+                    return new RunResult(false, consumed);
+                }
+                state = step(state, c);
+                if (state == DEAD) {
+                    // Stop reading, nothing after this can be accepted
+                    return new RunResult(false, consumed);
+                }
+                settled = absorbing && isAbsorbing(state);
+            }
+            buffer.clear();
+        }
+
+        return new RunResult(isAccepting(state), consumed);
+    }
+
+    /**
+     * Run the matcher on a range of bytes, reading each byte as the
+     * character with the same value (as in runBytes(..)). For UTF-8 input,
+     * run a matcher compiled by Utf8DFA.
+     * @param bytes: The input
+     * @param from: The index of the first byte to read
+     * @param to: The index after the last byte to read
+     * @return True: if the bytes are accepted
+     */
+    public boolean matchesBytes(byte[] bytes, int from, int to) {
+        int state = startState();
+        for (int i = from; i < to; i++) {
+            state = step(state, (char) (bytes[i] & 0xFF));
+            if (state == DEAD) return false;
+            // The rest only has to stay inside the alphabet
+            if (absorbing && isAbsorbing(state)) {
+                for (int j = i + 1; j < to; j++) {
+                    if (symbolOf((char) (bytes[j] & 0xFF)) < 0) return false;
+                }
+                return true;
+            }
+        }
+        return isAccepting(state);
+    }
+
+    /**
+     * Run the matcher on the remaining bytes of a buffer (which may be
+     * direct or mapped), without moving its position.
+     * @param buffer: The input
+     * @return True: if the bytes are accepted
+     */
+    public boolean matchesBytes(ByteBuffer buffer) {
+        int state = startState();
+        for (int i = buffer.position(), n = buffer.limit(); i < n; i++) {
+            state = step(state, (char) (buffer.get(i) & 0xFF));
+            if (state == DEAD) return false;
+            // The rest only has to stay inside the alphabet
+            if (absorbing && isAbsorbing(state)) {
+                for (int j = i + 1; j < n; j++) {
+                    if (symbolOf((char) (buffer.get(j) & 0xFF)) < 0) return false;
+                }
+                return true;
+            }
+        }
+        return isAccepting(state);
+    }
+
+    /**
+     * Scan the given file through a memory map, reporting the offset after
+     * every prefix of the file that this matcher accepts (see
+     * MappedScanner).
+     * @param file: The file to scan
+     * @return An: iterator over the accepting offsets, which should be
+     *          closed when done
+     * @throws IOException if the file can't be opened
+     */
+    public MappedScanner scan(Path file) throws IOException {
+        return new MappedScanner(this, file);
+    }
+
+    /**
+     * Copy this matcher out of the Java heap (see OffHeapDFA).
+     * @return An: equivalent matcher, which must be closed when done
+     */
+    public OffHeapDFA offHeap() {
+        return OffHeapDFA.copyOf(this);
+    }
+
+    /**
+     * Summarize the compiled matcher
+     */
+    @Override
+    public String toString() {
+        return String.format("%s (compiled: %d states, %d letters, %s table)",
+                label, stateCount(), alphabetSize(), width());
+    }
+
+    /*
+     * The name of the element type backing the table
+     */
+    abstract String width();
+
+    /*
+     * A table for automata with fewer than 128 states
+     */
+    static final class ByteTable extends CompiledDFA {
+        private final byte[] table;
+
+        ByteTable(String label, String[] stateNames, char[] symbols,
+                  boolean[] accepting, byte[] table, byte[] kinds) {
+            super(label, stateNames, symbols, accepting, kinds);
+            this.table = table;
+        }
+
+        @Override
+        public int next(int state, int symbol) {
+            return table[state * symbols.length + symbol];
+        }
+
+        @Override
+        public boolean matches(CharSequence str) {
+            // Keep everything the loop touches in locals
+            final byte[] t = table;
+            final int[] ids = symbolIds;
+            final int k = symbols.length;
+            final byte[] stateKinds = kinds;
+            final boolean settles = absorbing;
+            int state = 0;
+            for (int i = 0, n = str.length(); i < n; i++) {
+                char c = str.charAt(i);
+                int a = c < ids.length ? ids[c] : -1;
+                // Leaving the alphabet or the live states means rejection
+                if (a < 0) return false;
+                state = t[state * k + a];
+                if (state < 0) return false;
+                // The rest only has to stay inside the alphabet
+                if (settles && stateKinds[state] == StateAnalysis.ABSORBING) {
+                    return restInAlphabet(str, i + 1);
+                }
+            }
+            return accepting[state];
+        }
+
+        @Override
+        String width() {
+            return "byte";
+        }
+    }
+
+    /*
+     * A table for automata with fewer than 32768 states
+     */
+    static final class ShortTable extends CompiledDFA {
+        private final short[] table;
+
+        ShortTable(String label, String[] stateNames, char[] symbols,
+                   boolean[] accepting, short[] table, byte[] kinds) {
+            super(label, stateNames, symbols, accepting, kinds);
+            this.table = table;
+        }
+
+        @Override
+        public int next(int state, int symbol) {
+            return table[state * symbols.length + symbol];
+        }
+
+        @Override
+        public boolean matches(CharSequence str) {
+            final short[] t = table;
+            final int[] ids = symbolIds;
+            final int k = symbols.length;
+            final byte[] stateKinds = kinds;
+            final boolean settles = absorbing;
+            int state = 0;
+            for (int i = 0, n = str.length(); i < n; i++) {
+                char c = str.charAt(i);
+                int a = c < ids.length ? ids[c] : -1;
+                if (a < 0) return false;
+                state = t[state * k + a];
+                if (state < 0) return false;
+                // The rest only has to stay inside the alphabet
+                if (settles && stateKinds[state] == StateAnalysis.ABSORBING) {
+                    return restInAlphabet(str, i + 1);
+                }
+            }
+            return accepting[state];
+        }
+
+        @Override
+        String width() {
+            return "short";
+        }
+    }
+
+    /*
+     * A table for everything larger
+     */
+    static final class IntTable extends CompiledDFA {
+        private final int[] table;
+
+        IntTable(String label, String[] stateNames, char[] symbols,
+                 boolean[] accepting, int[] table, byte[] kinds) {
+            super(label, stateNames, symbols, accepting, kinds);
+            this.table = table;
+        }
+
+        @Override
+        public int next(int state, int symbol) {
+            return table[state * symbols.length + symbol];
+        }
+
+        @Override
+        public boolean matches(CharSequence str) {
+            final int[] t = table;
+            final int[] ids = symbolIds;
+            final int k = symbols.length;
+            final byte[] stateKinds = kinds;
+            final boolean settles = absorbing;
+            int state = 0;
+            for (int i = 0, n = str.length(); i < n; i++) {
+                char c = str.charAt(i);
+                int a = c < ids.length ? ids[c] : -1;
+                if (a < 0) return false;
+                state = t[state * k + a];
+                if (state < 0) return false;
+                // The rest only has to stay inside the alphabet
+                if (settles && stateKinds[state] == StateAnalysis.ABSORBING) {
+                    return restInAlphabet(str, i + 1);
+                }
+            }
+            return accepting[state];
+        }
+
+        @Override
+        String width() {
+            return "int";
+        }
+    }
+}
@@ -1,6 +1,12 @@
 import javafx.util.Pair;
 
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.channels.ReadableByteChannel;
 import java.util.*;
+import java.util.function.BiPredicate;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
 
 /**
  * A class for building, storing, and running deterministic finite-state
@@ -12,11 +18,13 @@ public class DFA extends FSA {
     // Transitions are accessed through the helper method
     // delta(q: String, c: String) -> String
     // setDelta(q: String, c: String, transition: String)
-    protected HashMap<Pair<String, String>, String> transitions;
+    // and keyed by the id of the state and the letter, packed into a long
+    // (see FSA.transitionKey(..))
+    protected LongObjectMap<String> transitions;
 
     public DFA(String label) {
         super(label);
-        transitions = new HashMap<>();
+        transitions = new LongObjectMap<>();
     }
 
     /**
@@ -68,14 +76,113 @@ public class DFA extends FSA {
         String currentState = startingState;
 
         // Read the string character by character
-        for (Character c : str.toCharArray()) {
-            currentState = delta(currentState, c.toString());
+        for (int i = 0; i < str.length(); i++) {
+            currentState = delta(currentState, str.charAt(i));
+            // A missing transition can never lead back to an accept state
+            if (currentState == null) return false;
         }
 
         // Check if the string was accepted
         return acceptStates.contains(currentState);
     }
 
+    /**
+     * Run the DFA on everything that can be read from the given Reader,
+     * using its compiled table (see FSA.runStream(..)).
+     */
+    @Override
+    public RunResult runStream(Reader in) throws IOException {
+        return compile().runStream(in);
+    }
+
+    /**
+     * Run the DFA on every byte that can be read from the given channel,
+     * using its compiled table (see FSA.runBytes(..)).
+     */
+    @Override
+    public RunResult runBytes(ReadableByteChannel in) throws IOException {
+        return compile().runBytes(in);
+    }
+
+    /**
+     * Start a cursor over the compiled DFA. To check many inputs, keep the
+     * cursor and reset() it instead of making a new one each time.
+     */
+    @Override
+    public MatcherCursor cursor() {
+        return compile().cursor();
+    }
+
+    /**
+     * Compile the DFA once for the whole batch. The compiled table is
+     * immutable, so every task can share it.
+     */
+    @Override
+    protected Supplier<Predicate<CharSequence>> batchMatchers() {
+        CompiledDFA compiled = compile();
+        return () -> compiled::matches;
+    }
+
+    /**
+     * A DFA compiles directly, without the subset construction.
+     */
+    @Override
+    protected CompiledDFA toCompiledDFA() {
+        return compile();
+    }
+
+    /**
+     * Compile this DFA into an immutable matcher backed by a flat transition
+     * table, for running the same automaton over many or long inputs.
+     * @return A: CompiledDFA equivalent to this DFA
+     */
+    public CompiledDFA compile() {
+        return CompiledDFA.compile(this);
+    }
+
+    /**
+     * Compile this DFA into a class of its own, with each state turned into
+     * a block of code (see GeneratedDFA). Worth it for automata that are
+     * run many times.
+     * @return A: CompiledDFA equivalent to this DFA, which falls back to the
+     *          table if the DFA is too large to generate code for
+     */
+    public CompiledDFA generate() {
+        return GeneratedDFA.of(compile());
+    }
+
+    /**
+     * Compile this DFA into a compressed table, storing only the
+     * transitions that differ from each state's most common one (see
+     * CombDFA). Worth it for large alphabets with mostly dead transitions,
+     * like lexers.
+     * @return A: CompiledDFA equivalent to this DFA
+     */
+    public CompiledDFA compileComb() {
+        return CombDFA.of(compile());
+    }
+
+    /**
+     * Compile this DFA into a matcher over the UTF-8 encoding of its input
+     * (see Utf8DFA), to run over bytes without decoding them.
+     * @return A: minimal byte-level matcher, for matchesBytes(..),
+     *          runBytes(..) and scan(..)
+     */
+    public CompiledDFA compileUtf8() {
+        return Utf8DFA.compile(compile());
+    }
+
+    /**
+     * Number the words this DFA accepts, for a finite language (see
+     * WordIndex).
+     * @return An: index mapping each word to its position in sorted order
+     *          and back
+     * @throws IllegalArgumentException if the language is infinite
+     */
+    public WordIndex wordIndex() {
+        return new WordIndex(compile());
+    }
+
     /**
      * Format the DFA in the style described in Homework 2, Question 4.
      * @return A: formatted multiline String describing the DFA
@@ -115,8 +222,20 @@ public class DFA extends FSA {
      *             G(q: Q, a: S)
      */
     protected String delta(String q, String s) {
+        return delta(q, s.charAt(0));
+    }
 
-        return transitions.get(new Pair<> (q, s));
+    /**
+     * The transition function for this DFA, for a letter given as a char (so
+     * runs don't have to make a String for every character).
+     * @param q: The state, a member of states.keySet()
+     * @param c: The input letter
+     * @return The: state determined by the transition function, or null if
+     *             there is none
+     */
+    protected String delta(String q, char c) {
+        int id = states.id(q);
+        return id < 0 ? null : transitions.get(transitionKey(id, c));
     }
 
     /**
@@ -131,7 +250,7 @@ public class DFA extends FSA {
      * @param value: The desired transition state
      */
     protected void setDelta(String q, String s, String value) {
-        transitions.put(new Pair<>(q, s), value);
+        transitions.put(transitionKey(states.intern(q), s.charAt(0)), value);
     }
 
     /**
@@ -150,63 +269,247 @@ public class DFA extends FSA {
      *            Start State:      q_2
      *            Accept States:    F_2
      * @return The: union of the two DFA's, a DFA with the form
-     *            States:           Q = Q_1 X Q_2
+     *            States:           Q = { (r_1, r_2): Q_1 X Q_2 | (r_1, r_2)
+     *                                  is reachable from (q_1, q_2) }
      *            Alphabet:         S = S_1 U S_2
      *            Transitions:      G((r_1: Q_1, r_2: Q_2), a: S) ->
      *                                  (G_1(r_1, a), G_2(r_2, a))
      *            Start State:      q0 = (q_1, q_2)
      *            Accept States:    F = (F_1 X Q_2) U (Q_1 X F_2)
+     *
+     *         This is product(d1, d2, (x, y) -> x || y), so only the pairs
+     *         reachable from (q_1, q_2) are built.
      */
     public static DFA union(DFA d1, DFA d2) {
-        DFA u = new DFA(d1 + " U "  + d2);
+        DFA u = product(d1, d2, (x, y) -> x || y);
+        u.label = d1.label + " U " + d2.label;
+        return u;
+    }
 
-        // Q = Q_1 X Q_2
-        for (String q1 : d1.states) {
-            for (String q2 : d2.states) {
-                u.states.add(tuple(q1, q2));
-            }
+    /**
+     * Generate the intersection of two DFA's, accepting the strings accepted
+     * by both. See product(..) for the construction.
+     */
+    public static DFA intersection(DFA d1, DFA d2) {
+        DFA i = product(d1, d2, (x, y) -> x && y);
+        i.label = d1.label + " \u2229 " + d2.label;
+        return i;
+    }
+
+    /**
+     * Generate the difference of two DFA's, accepting the strings accepted
+     * by d1 but not by d2. See product(..) for the construction.
+     */
+    public static DFA difference(DFA d1, DFA d2) {
+        DFA d = product(d1, d2, (x, y) -> x && !y);
+        d.label = d1.label + " - " + d2.label;
+        return d;
+    }
+
+    /**
+     * Generate the symmetric difference of two DFA's, accepting the strings
+     * accepted by exactly one of them. See product(..) for the construction.
+     */
+    public static DFA symmetricDifference(DFA d1, DFA d2) {
+        DFA x = product(d1, d2, (a, b) -> a ^ b);
+        x.label = d1.label + " \u2295 " + d2.label;
+        return x;
+    }
+
+    /**
+     * Generate the complement of a DFA over its own alphabet, accepting every
+     * string of S* it rejects.
+     *
+     * Missing transitions are sent to an explicit sink state, which becomes
+     * an accept state in the complement.
+     */
+    public static DFA complement(DFA d) {
+        // Pairing d with itself and ignoring the second side keeps the
+        // alphabet S and adds the sink through the dead pair
+        DFA c = product(d, d, (x, y) -> !x);
+        c.label = "^" + d.label;
+        return c;
+    }
+
+    /**
+     * Generate the product of two DFA's as described in the proof for
+     * Theorem 1.25, with the accept states decided by a boolean combiner
+     * instead of always taking the union.
+     * @param d1: The first DFA in the product, of the form
+     *            States:           Q_1
+     *            Alphabet:         S_1
+     *            Transitions:      G_1
+     *            Start State:      q_1
+     *            Accept States:    F_1
+     * @param d2: The second DFA in the product, of the form
+     *            States:           Q_2
+     *            Alphabet:         S_2
+     *            Transitions:      G_2
+     *            Start State:      q_2
+     *            Accept States:    F_2
+     * @param combiner: Decides if (r_1, r_2) accepts, given whether r_1: F_1
+     *                and whether r_2: F_2
+     * @return The: product of the two DFA's, a DFA with the form
+     *            States:           Q = { (r_1, r_2): Q_1' X Q_2' |
+     *                                  (r_1, r_2) is reachable from
+     *                                  (q_1, q_2) }
+     *            Alphabet:         S = S_1 U S_2
+     *            Transitions:      G((r_1, r_2), a: S) ->
+     *                                  (G_1(r_1, a), G_2(r_2, a))
+     *            Start State:      q0 = (q_1, q_2)
+     *            Accept States:    F = { (r_1, r_2): Q |
+     *                                  combiner(r_1: F_1, r_2: F_2) }
+     *
+     *         where Q_1' and Q_2' include an implicit dead state, reached by
+     *         missing transitions, transitions to undefined states and by
+     *         letters outside of S_1 (or S_2).
+     *         The pairs are discovered breadth first from (q_1, q_2), so
+     *         unreachable pairs are never built, and each pair is named q0,
+     *         q1, q2, ... in the order it was found. The pair where both
+     *         sides are dead is only kept if the combiner accepts it.
+     */
+    public static DFA product(DFA d1, DFA d2,
+                              BiPredicate<Boolean, Boolean> combiner) {
+        DFA p = new DFA(d1.label + " X " + d2.label);
+        exploreProduct(d1, d2, combiner, p);
+        return p;
+    }
+
+    /**
+     * Check if the product of two DFA's (see product(..)) accepts nothing,
+     * without building it. The search stops at the first reachable pair
+     * that the combiner accepts.
+     *
+     * For instance productEmptyP(d1, d2, (x, y) -> x && !y) checks if
+     * L(d1) is a subset of L(d2).
+     * @return True: if no reachable pair accepts
+     */
+    public static boolean productEmptyP(DFA d1, DFA d2,
+                                        BiPredicate<Boolean, Boolean> combiner) {
+        return !exploreProduct(d1, d2, combiner, null);
+    }
+
+    /*
+     * Helper method for the product construction. Explores the reachable
+     * pairs breadth first, adding them to 'p' if it isn't null. When 'p' is
+     * null, returns true as soon as an accepting pair is found. Otherwise
+     * returns whether any accepting pair was found.
+     */
+    private static boolean exploreProduct(DFA d1, DFA d2,
+                                          BiPredicate<Boolean, Boolean>
+                                                  combiner,
+                                          DFA p) {
+        // Evaluate the combiner once for each of the 4 cases, indexed by
+        // (r_1: F_1) * 2 + (r_2: F_2)
+        boolean[] accepts = new boolean[4];
+        for (int i = 0; i < 4; i++) {
+            accepts[i] = combiner.test(i >= 2, i % 2 == 1);
         }
 
         // S = S_1 U S_2
-        u.alphabet = setUnion(d1.alphabet, d2.alphabet);
-
-        // q_0 = (q_1, q_2)
-        u.startingState =
-               tuple(d1.startingState, d2.startingState);
-
-        // F = (F_1 x Q_2) U (Q_1 x F_2)
-        u.acceptStates = new ArrayList<>();
-        // F_1 x Q_2
-        for (String f : d1.acceptStates) {
-            for (String q : d2.states) {
-                u.acceptStates.add(tuple(f, q));
-            }
-
+        List<String> alphabet = setUnion(d1.alphabet, d2.alphabet);
+        alphabet.remove(EPSILON);
+        if (p != null) p.alphabet = alphabet;
+
+        // Walk both DFA's through their own transitions on demand, by state
+        // id, so only the pairs that are reached cost anything (and
+        // productEmptyP can stop before most of either side is looked at).
+        // Letters outside S_1 (or S_2) lead to the dead state
+        int k = alphabet.size();
+        char[] letters = new char[k];
+        boolean[] in1 = new boolean[k];
+        boolean[] in2 = new boolean[k];
+        for (int a = 0; a < k; a++) {
+            letters[a] = alphabet.get(a).charAt(0);
+            in1[a] = d1.alphabet.contains(alphabet.get(a));
+            in2[a] = d2.alphabet.contains(alphabet.get(a));
         }
-        // Q_1 x F_2
-        for (String q : d1.states) {
-            for (String f : d2.acceptStates) {
-                u.acceptStates.add(tuple(q, f));
+
+        // Each pair (r_1, r_2) is packed into one id, shifted by one so the
+        // dead state (-1) fits
+        long width = d2.states.size() + 1;
+        LongIntMap ids = new LongIntMap();
+        // The pairs in the order they were found
+        int[] firsts = new int[16];
+        int[] seconds = new int[16];
+        int found = 0;
+        boolean nonEmpty = false;
+        boolean keepDead = accepts[0];
+
+        // q0 = (q_1, q_2)
+        firsts[0] = d1.startId();
+        seconds[0] = d2.startId();
+        ids.put((firsts[0] + 1) * width + (seconds[0] + 1), 0);
+        found++;
+        if (p != null) p.startingState = "q0";
+
+        for (int i = 0; i < found; i++) {
+            int r1 = firsts[i];
+            int r2 = seconds[i];
+            String name = "q" + i;
+
+            if (accepts[(d1.isAcceptingId(r1) ? 2 : 0)
+                    + (d2.isAcceptingId(r2) ? 1 : 0)]) {
+                // Stop early if we only needed to know the product accepts
+                // something
+                if (p == null) return true;
+                nonEmpty = true;
+                p.acceptStates.add(name);
             }
-        }
+            // The names are distinct by construction, so skip addState
+            if (p != null) p.states.intern(name);
+
+            // G((r_1, r_2), a) = (G_1(r_1, a), G_2(r_2, a))
+            for (int a = 0; a < k; a++) {
+                int t1 = in1[a] ? d1.deltaId(r1, letters[a])
+                        : CompiledDFA.DEAD;
+                int t2 = in2[a] ? d2.deltaId(r2, letters[a])
+                        : CompiledDFA.DEAD;
+                if (t1 == CompiledDFA.DEAD && t2 == CompiledDFA.DEAD
+                        && !keepDead) {
+                    continue;
+                }
 
-        // delta((r_1, r_2), a) = (delta_1(r_1, a), delta_2(r_2, a))
-        for (String r1 : d1.states) {
-            for (String r2 : d2.states) {
-                for (String c : u.alphabet) {
-                    u.setDelta(tuple(r1, r2), c, tuple(d1.delta(r1, c), d2.delta(r2, c)));
+                long key = (t1 + 1) * width + (t2 + 1);
+                int target = ids.get(key, -1);
+                if (target < 0) {
+                    // Register the newly discovered pair
+                    if (found == firsts.length) {
+                        firsts = Arrays.copyOf(firsts, found * 2);
+                        seconds = Arrays.copyOf(seconds, found * 2);
+                    }
+                    target = found;
+                    firsts[found] = t1;
+                    seconds[found] = t2;
+                    found++;
+                    ids.put(key, target);
                 }
+                if (p != null) p.setDelta(name, alphabet.get(a), "q" + target);
             }
         }
 
-        return u;
+        return nonEmpty;
     }
 
     /*
-     * Helper method for formatting 2-tuples
+     * Helper methods for walking the DFA by state id, with
+     * CompiledDFA.DEAD standing in for a missing start state, a missing
+     * transition or a transition to a state that was never defined (none of
+     * which can ever accept)
      */
-    private static String tuple(String a, String b) {
-        return String.format("(%s, %s)", a, b);
+    private int startId() {
+        return startingState == null ? CompiledDFA.DEAD
+                : states.id(startingState);
+    }
+
+    private int deltaId(int id, char c) {
+        if (id == CompiledDFA.DEAD) return CompiledDFA.DEAD;
+        String next = transitions.get(transitionKey(id, c));
+        return next == null ? CompiledDFA.DEAD : states.id(next);
+    }
+
+    private boolean isAcceptingId(int id) {
+        return id != CompiledDFA.DEAD && acceptStates.containsId(id);
     }
 
     /**
@@ -232,7 +535,9 @@ public class DFA extends FSA {
         // Copy the fields of the DFA to the NFA
         NFA n = new NFA(d.label);
 
-        n.states.addAll(d.states);
+        for (String q : d.states) {
+            n.states.intern(q);
+        }
         n.alphabet.addAll(d.alphabet);
         n.startingState = d.startingState;
         n.acceptStates.addAll(d.acceptStates);
@@ -0,0 +1,88 @@
+/**
+ * A cursor over a compiled DFA. The whole position is the current state id,
+ * so snapshots are a couple of words.
+ */
+final class DFACursor implements MatcherCursor {
+
+    // The matcher being run
+    private final CompiledDFA dfa;
+
+    // The current state, or DEAD
+    private int state;
+
+    // The number of characters read
+    private long consumed;
+
+    DFACursor(CompiledDFA dfa) {
+        this.dfa = dfa;
+        state = dfa.startState();
+    }
+
+    @Override
+    public void feed(char c) {
+        if (state != CompiledDFA.DEAD) state = dfa.step(state, c);
+        consumed++;
+    }
+
+    @Override
+    public void feed(CharSequence str, int from, int to) {
+        int current = state;
+        for (int i = from; i < to && current != CompiledDFA.DEAD; i++) {
+            current = dfa.step(current, str.charAt(i));
+        }
+        state = current;
+        consumed += to - from;
+    }
+
+    @Override
+    public boolean isAccepting() {
+        return dfa.isAccepting(state);
+    }
+
+    @Override
+    public boolean isDead() {
+        return dfa.isDeadEnd(state);
+    }
+
+    @Override
+    public long consumed() {
+        return consumed;
+    }
+
+    @Override
+    public void reset() {
+        state = dfa.startState();
+        consumed = 0;
+    }
+
+    @Override
+    public Snapshot snapshot() {
+        return new Position(dfa, state, consumed);
+    }
+
+    @Override
+    public void restore(Snapshot snapshot) {
+        if (!(snapshot instanceof Position)
+                || ((Position) snapshot).dfa != dfa) {
+            throw new IllegalArgumentException("The snapshot wasn't taken " +
+                    "from a cursor over this DFA");
+        }
+        state = ((Position) snapshot).state;
+        consumed = ((Position) snapshot).consumed;
+    }
+
+    /*
+     * A saved state of a DFA cursor
+     */
+    private static final class Position implements Snapshot {
+        private final CompiledDFA dfa;
+        private final int state;
+        private final long consumed;
+
+        Position(CompiledDFA dfa, int state, long consumed) {
+            this.dfa = dfa;
+            this.state = state;
+            this.consumed = consumed;
+        }
+    }
+}
@@ -0,0 +1,421 @@
+import java.util.*;
+
+/**
+ * Builds the minimal DFA accepting a finite list of words (a DAWG, or
+ * directed acyclic word graph) one word at a time, as in Daciuk, Mihov,
+ * Watson and Watson, "Incremental Construction of Minimal Acyclic Finite
+ * State Automata" (2000).
+ *
+ * The automaton is kept minimal as it grows, using a register of the
+ * states that are already known to be unique: two states of an acyclic DFA
+ * accept the same suffixes exactly when they agree on accepting and go to
+ * the same states on the same letters, so a state can be checked against
+ * the register once its children are final, and merged into the state the
+ * register has if there is one.
+ *
+ * Words given in sorted order take the fast path: a word only changes the
+ * automaton below the prefix it shares with the previous word, so the rest
+ * of the previous word's path is final and can be registered right away.
+ * Each word costs time linear in its length, and beyond the automaton
+ * itself only the path of the last word is kept.
+ *
+ * A word out of order switches the builder to the slower path, which
+ * copes with any order: the path of the new word is made private to it
+ * first (states reached by more than one path are cloned), then the word's
+ * suffix is added and the whole path is registered again, bottom up. This
+ * is still linear in the length of the word, but touches every state on
+ * its path rather than just the new ones.
+ */
+public final class DawgBuilder {
+
+    // The start state, which is never registered (no other state of an
+    // acyclic DFA can accept the same words)
+    private final Node root = new Node();
+
+    // The registered states, each mapped to itself
+    private final Map<Node, Node> register = new HashMap<>();
+
+    // The letters used so far
+    private final BitSet letters = new BitSet();
+
+    // Whether every word so far came in sorted order
+    private boolean sorted = true;
+
+    // The previous word, and the states along it (path.get(i) is reached
+    // after its first i letters), none of which are registered yet
+    // * Only used while sorted
+    private CharSequence previous = "";
+    private final List<Node> path = new ArrayList<>(
+            Collections.singletonList(root));
+
+    /**
+     * Build the minimal DFA for a list of words.
+     * @param label: The label of the DFA
+     * @param words: The words, fastest in sorted order
+     * @return The: minimal DFA accepting exactly the given words
+     */
+    public static DFA of(String label, Iterable<? extends CharSequence> words) {
+        DawgBuilder builder = new DawgBuilder();
+        builder.addAll(words);
+        return builder.build(label);
+    }
+
+    /**
+     * Add a word to the automaton. Adding a word twice does nothing.
+     * @param word: The word, which may be empty
+     */
+    public void add(CharSequence word) {
+        for (int i = 0; i < word.length(); i++) {
+            letters.set(word.charAt(i));
+        }
+        if (sorted && compare(previous, word) <= 0) {
+            addSorted(word);
+        } else {
+            if (sorted) {
+                // Finish the sorted part, leaving every state registered
+                registerPath(0);
+                sorted = false;
+            }
+            addUnsorted(word);
+        }
+    }
+
+    /**
+     * Add every word of the list, in order.
+     * @param words: The words to add
+     */
+    public void addAll(Iterable<? extends CharSequence> words) {
+        for (CharSequence word : words) {
+            add(word);
+        }
+    }
+
+    /**
+     * Build a DFA from the words added so far. States are named q0, q1, ..
+     * in breadth first order, with q0 the start state. Words can still be
+     * added afterwards, though they take the slower path.
+     * @param label: The label of the DFA
+     * @return The: minimal DFA accepting exactly the words added
+     */
+    public DFA build(String label) {
+        List<Node> nodes = finish();
+        DFA dfa = new DFA(label);
+        char[] symbols = symbols();
+        for (char c : symbols) {
+            dfa.alphabet.add(String.valueOf(c));
+        }
+        // The names are distinct, so skip addState's check
+        for (int q = 0; q < nodes.size(); q++) {
+            dfa.states.intern("q" + q);
+            if (nodes.get(q).accepting) dfa.acceptStates.add("q" + q);
+        }
+        dfa.startingState = "q0";
+        for (int q = 0; q < nodes.size(); q++) {
+            Node node = nodes.get(q);
+            for (int j = 0; j < node.size; j++) {
+                // Missing transitions stay null, leading to rejection
+                dfa.setDelta("q" + q, String.valueOf(node.labels[j]),
+                        "q" + node.targets[j].id);
+            }
+        }
+        return dfa;
+    }
+
+    /**
+     * Build a compiled matcher from the words added so far, without going
+     * through a DFA with named states (see build(..)).
+     * @param label: The label of the matcher
+     * @return A: matcher accepting exactly the words added
+     */
+    public CompiledDFA compile(String label) {
+        List<Node> nodes = finish();
+        char[] symbols = symbols();
+        int k = symbols.length;
+        int[] symbolIds = new int[letters.length()];
+        for (int a = 0; a < k; a++) {
+            symbolIds[symbols[a]] = a;
+        }
+
+        int n = nodes.size();
+        String[] names = new String[n];
+        boolean[] accepting = new boolean[n];
+        int[] table = new int[n * k];
+        Arrays.fill(table, CompiledDFA.DEAD);
+        for (int q = 0; q < n; q++) {
+            Node node = nodes.get(q);
+            names[q] = "q" + q;
+            accepting[q] = node.accepting;
+            for (int j = 0; j < node.size; j++) {
+                table[q * k + symbolIds[node.labels[j]]] = node.targets[j].id;
+            }
+        }
+        return CompiledDFA.fromTable(label, names, symbols, table, accepting);
+    }
+
+    /*
+     * Helper method to add a word that doesn't come before the previous one
+     */
+    private void addSorted(CharSequence word) {
+        // Everything below the shared prefix of the previous word is final
+        int shared = 0;
+        int limit = Math.min(previous.length(), word.length());
+        while (shared < limit
+                && previous.charAt(shared) == word.charAt(shared)) {
+            shared++;
+        }
+        registerPath(shared);
+
+        // Hang the rest of the word off the end of the shared prefix
+        for (int i = shared; i < word.length(); i++) {
+            Node next = new Node();
+            path.get(i).append(word.charAt(i), next);
+            next.inDegree = 1;
+            path.add(next);
+        }
+        path.get(word.length()).accepting = true;
+        previous = word;
+    }
+
+    /*
+     * Helper method to register the path of the previous word below the
+     * given depth, bottom up, merging each state into an equivalent one if
+     * the register has it. Truncates the path to the given depth
+     */
+    private void registerPath(int depth) {
+        for (int d = path.size() - 1; d > depth; d--) {
+            Node child = path.get(d);
+            Node same = register.putIfAbsent(child, child);
+            if (same != null) {
+                path.get(d - 1).redirect(previous.charAt(d - 1), same);
+                same.inDegree++;
+                child.release();
+            }
+            path.remove(d);
+        }
+    }
+
+    /*
+     * Helper method to add a word in any order, keeping every state but the
+     * root registered
+     */
+    private void addUnsorted(CharSequence word) {
+        // Follow the word as far as the automaton already goes
+        List<Node> walk = new ArrayList<>();
+        walk.add(root);
+        int length = word.length();
+        int shared = 0;
+        while (shared < length) {
+            Node next = walk.get(shared).get(word.charAt(shared));
+            if (next == null) break;
+            walk.add(next);
+            shared++;
+        }
+        if (shared == length && walk.get(shared).accepting) return;
+
+        // Every state on the path is about to change. The ones only this
+        // path reaches are taken out of the register to be changed in place;
+        // from the first state also reached some other way, the rest of the
+        // path is cloned, so the other paths keep the originals
+        boolean cloning = false;
+        for (int i = 1; i <= shared; i++) {
+            Node node = walk.get(i);
+            cloning |= node.inDegree > 1;
+            if (cloning) {
+                Node clone = node.copy();
+                walk.get(i - 1).redirect(word.charAt(i - 1), clone);
+                node.inDegree--;
+                clone.inDegree = 1;
+                walk.set(i, clone);
+            } else {
+                register.remove(node);
+            }
+        }
+
+        // Add the rest of the word
+        for (int i = shared; i < length; i++) {
+            Node next = new Node();
+            walk.get(i).insert(word.charAt(i), next);
+            next.inDegree = 1;
+            walk.add(next);
+        }
+        walk.get(length).accepting = true;
+
+        // Register the path again, bottom up
+        for (int d = length; d > 0; d--) {
+            Node child = walk.get(d);
+            Node same = register.putIfAbsent(child, child);
+            if (same != null && same != child) {
+                walk.get(d - 1).redirect(word.charAt(d - 1), same);
+                same.inDegree++;
+                child.release();
+            }
+        }
+    }
+
+    /*
+     * Helper method to make the automaton final and number its states
+     * breadth first, with the root first
+     */
+    private List<Node> finish() {
+        if (sorted) {
+            registerPath(0);
+            // The path is registered now, so only the slow path is safe
+            sorted = false;
+        }
+        List<Node> nodes = new ArrayList<>();
+        Set<Node> seen = Collections.newSetFromMap(new IdentityHashMap<>());
+        nodes.add(root);
+        seen.add(root);
+        for (int q = 0; q < nodes.size(); q++) {
+            Node node = nodes.get(q);
+            node.id = q;
+            for (int j = 0; j < node.size; j++) {
+                if (seen.add(node.targets[j])) nodes.add(node.targets[j]);
+            }
+        }
+        return nodes;
+    }
+
+    /*
+     * Helper method to list the letters used, in order
+     */
+    private char[] symbols() {
+        char[] symbols = new char[letters.cardinality()];
+        int a = 0;
+        for (int c = letters.nextSetBit(0); c >= 0;
+             c = letters.nextSetBit(c + 1)) {
+            symbols[a++] = (char) c;
+        }
+        return symbols;
+    }
+
+    /*
+     * Helper method to compare words letter by letter
+     */
+    private static int compare(CharSequence a, CharSequence b) {
+        int limit = Math.min(a.length(), b.length());
+        for (int i = 0; i < limit; i++) {
+            if (a.charAt(i) != b.charAt(i)) return a.charAt(i) - b.charAt(i);
+        }
+        return a.length() - b.length();
+    }
+
+    /*
+     * A state under construction, with its transitions sorted by letter.
+     * Two nodes are equal if they'd accept the same suffixes, given that
+     * their children are registered: same accepting flag, same letters, and
+     * the very same targets
+     */
+    private static final class Node {
+        private static final char[] NO_LABELS = new char[0];
+        private static final Node[] NO_TARGETS = new Node[0];
+
+        boolean accepting;
+        char[] labels = NO_LABELS;
+        Node[] targets = NO_TARGETS;
+        int size;
+
+        // The number of transitions into this node
+        int inDegree;
+
+        // The breadth first number, once finished
+        int id;
+
+        Node get(char c) {
+            int j = find(c);
+            return j >= 0 ? targets[j] : null;
+        }
+
+        /*
+         * Add a transition on a letter larger than any so far
+         */
+        void append(char c, Node target) {
+            grow();
+            labels[size] = c;
+            targets[size] = target;
+            size++;
+        }
+
+        /*
+         * Add a transition on a new letter, anywhere in the order
+         */
+        void insert(char c, Node target) {
+            int j = -find(c) - 1;
+            grow();
+            System.arraycopy(labels, j, labels, j + 1, size - j);
+            System.arraycopy(targets, j, targets, j + 1, size - j);
+            labels[j] = c;
+            targets[j] = target;
+            size++;
+        }
+
+        /*
+         * Point an existing transition somewhere else
+         */
+        void redirect(char c, Node target) {
+            targets[find(c)] = target;
+        }
+
+        /*
+         * A node with the same transitions, which count as new edges
+         */
+        Node copy() {
+            Node clone = new Node();
+            clone.accepting = accepting;
+            clone.labels = Arrays.copyOf(labels, size);
+            clone.targets = Arrays.copyOf(targets, size);
+            clone.size = size;
+            for (int j = 0; j < size; j++) {
+                targets[j].inDegree++;
+            }
+            return clone;
+        }
+
+        /*
+         * Drop this node's edges, once it's been merged into another
+         */
+        void release() {
+            for (int j = 0; j < size; j++) {
+                targets[j].inDegree--;
+            }
+        }
+
+        private int find(char c) {
+            return Arrays.binarySearch(labels, 0, size, c);
+        }
+
+        private void grow() {
+            if (size == labels.length) {
+                int capacity = Math.max(2, size * 2);
+                labels = Arrays.copyOf(labels, capacity);
+                targets = Arrays.copyOf(targets, capacity);
+            }
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Node)) return false;
+            Node other = (Node) o;
+            if (accepting != other.accepting || size != other.size) {
+                return false;
+            }
+            for (int j = 0; j < size; j++) {
+                if (labels[j] != other.labels[j]
+                        || targets[j] != other.targets[j]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public int hashCode() {
+            int hash = accepting ? 1 : 0;
+            for (int j = 0; j < size; j++) {
+                hash = 31 * (31 * hash + labels[j])
+                        + System.identityHashCode(targets[j]);
+            }
+            return hash;
+        }
+    }
+}
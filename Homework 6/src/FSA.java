@@ -1,6 +1,14 @@
 import javafx.util.Pair;
 
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -22,17 +30,20 @@ public abstract class FSA {
     // The character to use for epsilon transitions
     final static String EPSILON = "\u03B5";
 
+    // The number of symbols read at a time when running over a stream
+    final static int BUFFER_SIZE = 8192;
+
     // The label for the FSA
     protected String label;
 
-    // The states of the FSA
-    protected List<String> states;
+    // The states of the FSA, which also gives each state an id
+    protected final StateTable states;
 
     // The usable alphabet of the FSA
     protected List<String> alphabet;
 
     // The set of accept states
-    protected List<String> acceptStates;
+    protected final StateSet acceptStates;
 
     // The current state of the FSA
     // * Set to the start state during initialization
@@ -80,15 +91,16 @@ public abstract class FSA {
      */
     public FSA(String label) {
         this.label = label;
-        states = new ArrayList<>();
+        states = new StateTable();
         alphabet = new ArrayList<>();
-        acceptStates = new ArrayList<>();
+        acceptStates = new StateSet(states);
     }
     
     /*
      * Helper function for performing set-style unions on list of Strings
      */
-    protected static List<String> setUnion(List<String> a, List<String> b) {
+    protected static List<String> setUnion(Collection<String> a,
+                                           Collection<String> b) {
         List<String> newList = new ArrayList<>();
 
         // Flag for epsilon
@@ -150,7 +162,7 @@ public abstract class FSA {
         }
 
         // Add the valid state and return what was added
-        states.add(state);
+        states.intern(state);
         return state;
     }
 
@@ -159,14 +171,15 @@ public abstract class FSA {
      * @return The numerical ID of a state that does not exist in the FSA.
      */
     public int getValidState() {
-        int q = 0;
-        String state = "q0";
-        while (states.contains(state)) {
-            q++;
-            state = "q" + q;
-        }
+        return states.freshNumber();
+    }
 
-        return q;
+    /*
+     * Helper method to pack a state id and a letter into the key of a
+     * transition, so the transition maps don't need a key object per lookup
+     */
+    protected static long transitionKey(int state, char letter) {
+        return ((long) state << 16) | letter;
     }
 
     /*
@@ -249,6 +262,110 @@ public abstract class FSA {
      */
     public abstract boolean runString(String str);
 
+    /**
+     * Run the FSA on everything that can be read from the given Reader,
+     * one fixed-size buffer at a time, so the input never has to fit in
+     * memory. The Reader is not closed.
+     * @param in: A source of characters from the FSA's alphabet
+     * @return The: result of the run, along with the number of characters
+     *          read. Reading stops early once no accept state can be
+     *          reached anymore (for instance after a character outside of
+     *          the alphabet).
+     * @throws IOException if reading fails
+     */
+    public abstract RunResult runStream(Reader in) throws IOException;
+
+    /**
+     * Run the FSA on every byte that can be read from the given channel,
+     * reading each byte as the character with the same value (ISO-8859-1,
+     * which covers ASCII alphabets). Uses constant memory like
+     * runStream(..), and the channel is not closed.
+     * @param in: A source of bytes
+     * @return The: result of the run, along with the number of bytes read
+     * @throws IOException if reading fails
+     */
+    public RunResult runBytes(ReadableByteChannel in) throws IOException {
+        return runStream(Channels.newReader(in,
+                StandardCharsets.ISO_8859_1.newDecoder(), BUFFER_SIZE));
+    }
+
+    /**
+     * Start a cursor that runs the FSA over input given a piece at a time
+     * (see MatcherCursor).
+     * @return A: cursor at the start state
+     */
+    public abstract MatcherCursor cursor();
+
+    /**
+     * Search the text for the leftmost substring the FSA accepts.
+     * @param text: The text to search
+     * @param kind: Which match to report from the leftmost start
+     * @return The: match, or null if no substring is accepted
+     */
+    public Match find(CharSequence text, MatchKind kind) {
+        return toCompiledDFA().find(text, 0, kind);
+    }
+
+    /**
+     * Lazily find every substring of the text that the FSA accepts, from
+     * left to right without overlaps (see Searcher).
+     * @param text: The text to search
+     * @param kind: Which match to report from each leftmost start
+     * @return An: iterator over the matches
+     */
+    public Iterator<Match> findAll(CharSequence text, MatchKind kind) {
+        return toCompiledDFA().findAll(text, kind);
+    }
+
+    /**
+     * Compile the FSA for the run modes that need a deterministic table.
+     * @return An: equivalent compiled DFA
+     */
+    protected CompiledDFA toCompiledDFA() {
+        return NFA.convertToDFA(this).compile();
+    }
+
+    /**
+     * Run the FSA on every string of the batch, in parallel on the common
+     * ForkJoinPool (see BatchRunner).
+     * @param strings: The strings to run
+     * @return A: BitSet where bit i is set if strings.get(i) was accepted
+     */
+    public BitSet runAll(List<? extends CharSequence> strings) {
+        return runAll(strings, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Run the FSA on every string of the batch, in parallel on the given
+     * pool.
+     * @param strings: The strings to run
+     * @param pool: The pool to run on
+     * @return A: BitSet where bit i is set if strings.get(i) was accepted
+     */
+    public BitSet runAll(List<? extends CharSequence> strings,
+                         ForkJoinPool pool) {
+        return BatchRunner.run(strings, batchMatchers(), pool);
+    }
+
+    /**
+     * Run the FSA on every string the iterator produces, reading a fixed
+     * number of strings at a time and running each batch in parallel on the
+     * common ForkJoinPool, so the strings never all have to be in memory.
+     * @param strings: The strings to run
+     * @return A: BitSet where bit i is set if the i-th string was accepted
+     */
+    public BitSet runAll(Iterator<? extends CharSequence> strings) {
+        return BatchRunner.run(strings, batchMatchers(),
+                ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Prepare the FSA for running a batch of strings.
+     * @return A: supplier of matchers, each with its own scratch space so a
+     *          matcher is only ever used by one thread
+     */
+    protected abstract Supplier<Predicate<CharSequence>> batchMatchers();
+
     /**
      * Process a raw line of input and set the alphabet of the FSA to the
      * given values.
@@ -306,7 +423,7 @@ public abstract class FSA {
             // Add every reachable state to the pruned DFA
             for (String state : reachable) {
                 // Add the state
-                prunedD.states.add(state);
+                prunedD.states.intern(state);
                 // Add the transition function
                 for (String letter : fsaD.alphabet) {
                     prunedD.setDelta(state, letter, fsaD.delta(state, letter));
@@ -331,6 +448,9 @@ public abstract class FSA {
             // Add every reachable state and its transition function to the
             // pruned NFA
             for (String state : reachable) {
+                // Add the state
+                prunedN.states.intern(state);
+                // Add the transition function
                 for (String letter : fsaN.alphabet) {
                     prunedN.setDelta(state, letter, fsaN.delta(state, letter));
                 }
@@ -423,31 +543,380 @@ public abstract class FSA {
     }
 
     /**
-     * Check if the given FSA's are equivalent, as described in the proof for
-     * Theorem 4.5.
-     *
-     * This algorithm constructs a new automaton C defined as
-     * C = (A intersect ^B) U (B intersect ^A).
+     * Produce the minimal DFA equivalent to the given FSA, using Hopcroft's
+     * partition refinement algorithm. NFAs are converted to DFAs first.
      *
      * Informal Proof.
      * ---------------
-     * If C contains no reachable accept states, then L(C) is empty. So there
-     * are no strings accepted by A that are not accepted by B.
-     * Thus A and B are equivalent.
+     * Two states are equivalent if they accept exactly the same strings.
+     * We start from the partition { F, Q - F }, which separates states we
+     * already know are distinguishable by the empty string. Whenever some
+     * letter a takes part of a block Y into a block A and the rest of Y
+     * outside of A, the states of Y are distinguishable (by a followed by
+     * the string separating A from the rest), so Y is split. When no block
+     * can be split anymore, every block is a set of equivalent states, so
+     * merging each block into one state gives the minimal DFA.
      *
-     * Similarly if A and B are equivalent, then there are no strings accepted
-     * by A that are not accepted by B. So L(C) will be empty. Thus C will
-     * contain no reachable accept states.
+     * Hopcroft's trick is to only ever re-check against the smaller half of
+     * a split block, so each state is used to split at most log(n) times
+     * per letter, which gives O(n * |S| * log n) time overall.
+     *
+     * Only states reachable from the start state are kept, and each merged
+     * state is named after one of its members.
+     * @param fsa: The FSA to be minimized
+     * @return The: minimal DFA recognizing the same language
+     */
+    public static DFA minimize(FSA fsa) {
+        CompiledDFA c = NFA.convertToDFA(fsa).compile();
+        int n = c.stateCount();
+        int k = c.alphabetSize();
+
+        // Copy the table, sending missing transitions to an explicit dead
+        // state numbered n (only if there are any)
+        int[] table = new int[(n + 1) * k];
+        boolean hasDead = false;
+        for (int q = 0; q < n; q++) {
+            for (int a = 0; a < k; a++) {
+                int next = c.next(q, a);
+                if (next == CompiledDFA.DEAD) {
+                    next = n;
+                    hasDead = true;
+                }
+                table[q * k + a] = next;
+            }
+        }
+        int total = hasDead ? n + 1 : n;
+        Arrays.fill(table, n * k, (n + 1) * k, n);
+        boolean[] accepting = new boolean[total];
+        for (int q = 0; q < n; q++) {
+            accepting[q] = c.isAccepting(q);
+        }
+
+        int[] block = hopcroftBlocks(table, total, k, accepting);
+
+        // Build the quotient automaton, naming blocks after the first member
+        // reached in the compiled (breadth first) order
+        DFA minimal = new DFA(fsa.label);
+        for (int a = 0; a < k; a++) {
+            minimal.alphabet.add(String.valueOf(c.symbolAt(a)));
+        }
+        String[] blockNames = new String[total];
+        for (int q = 0; q < n; q++) {
+            if (blockNames[block[q]] == null) {
+                // The names are already distinct, so skip addState's check
+                blockNames[block[q]] = c.stateName(q);
+                minimal.states.intern(blockNames[block[q]]);
+                if (accepting[q]) minimal.acceptStates.add(blockNames[block[q]]);
+            }
+        }
+        minimal.startingState = blockNames[block[0]];
+
+        boolean[] built = new boolean[total];
+        for (int q = 0; q < n; q++) {
+            // Only the first member of each block needs to be read
+            if (built[block[q]]) continue;
+            built[block[q]] = true;
+            String name = blockNames[block[q]];
+            for (int a = 0; a < k; a++) {
+                // Transitions into a block of only the dead state stay null
+                String target = blockNames[block[table[q * k + a]]];
+                if (target != null) {
+                    minimal.setDelta(name, minimal.alphabet.get(a), target);
+                }
+            }
+        }
+
+        return minimal;
+    }
+
+    /*
+     * Helper method to split the states of a complete DFA into blocks of
+     * equivalent states, using Hopcroft's algorithm.
      *
-     * Therefore A and B are equivalent iff C contains no accept states.
+     * The transitions are given as table[q * k + a] for n states and k
+     * letters. Returns the block number of each state.
+     */
+    static int[] hopcroftBlocks(int[] table, int n, int k,
+                                boolean[] accepting) {
+        // Reverse the transition function, grouped by letter and target:
+        // the sources of (a, t) are preSources[preStart[a*n+t] .. +1)
+        int[] preStart = new int[n * k + 1];
+        for (int q = 0; q < n; q++) {
+            for (int a = 0; a < k; a++) {
+                preStart[a * n + table[q * k + a] + 1]++;
+            }
+        }
+        for (int i = 0; i < n * k; i++) {
+            preStart[i + 1] += preStart[i];
+        }
+        int[] preSources = new int[n * k];
+        int[] fill = Arrays.copyOf(preStart, n * k);
+        for (int q = 0; q < n; q++) {
+            for (int a = 0; a < k; a++) {
+                preSources[fill[a * n + table[q * k + a]]++] = q;
+            }
+        }
+
+        // The blocks are stored as ranges of one permutation of the states,
+        // with each block's marked states moved to the front of its range
+        int[] elements = new int[n];
+        int[] location = new int[n];
+        int[] blockOf = new int[n];
+        int[] first = new int[n + 1];
+        int[] end = new int[n + 1];
+        int[] marked = new int[n + 1];
+        int blocks = 0;
+
+        // Start with { F, Q - F }, leaving out whichever is empty
+        int placed = 0;
+        for (int pass = 0; pass < 2; pass++) {
+            int start = placed;
+            for (int q = 0; q < n; q++) {
+                if (accepting[q] == (pass == 0)) {
+                    location[q] = placed;
+                    elements[placed++] = q;
+                    blockOf[q] = blocks;
+                }
+            }
+            if (placed > start) {
+                first[blocks] = start;
+                end[blocks] = placed;
+                blocks++;
+            }
+        }
+
+        // The worklist of splitters (block, letter), packed as block*k+a
+        boolean[] waiting = new boolean[(n + 1) * k];
+        int[] work = new int[(n + 1) * k];
+        int workSize = 0;
+        // Only the smaller of the two starting blocks needs to be a splitter
+        int smaller = blocks < 2 || end[0] - first[0] <= end[1] - first[1]
+                ? 0 : 1;
+        for (int a = 0; a < k && blocks > 0; a++) {
+            work[workSize++] = smaller * k + a;
+            waiting[smaller * k + a] = true;
+        }
+
+        int[] splitter = new int[n];
+        int[] touched = new int[n];
+        while (workSize > 0) {
+            int item = work[--workSize];
+            waiting[item] = false;
+            int splitBlock = item / k;
+            int a = item % k;
+
+            // Copy the splitter, since marking may reorder its range
+            int size = end[splitBlock] - first[splitBlock];
+            System.arraycopy(elements, first[splitBlock], splitter, 0, size);
+
+            // Mark every state that moves into the splitter on a
+            int touchedCount = 0;
+            for (int i = 0; i < size; i++) {
+                int t = splitter[i];
+                for (int j = preStart[a * n + t]; j < preStart[a * n + t + 1];
+                     j++) {
+                    int p = preSources[j];
+                    int b = blockOf[p];
+                    // Swap p to the end of the marked part of its block
+                    int swapAt = first[b] + marked[b];
+                    if (location[p] < swapAt) continue;
+                    int other = elements[swapAt];
+                    elements[location[p]] = other;
+                    location[other] = location[p];
+                    elements[swapAt] = p;
+                    location[p] = swapAt;
+                    if (marked[b]++ == 0) touched[touchedCount++] = b;
+                }
+            }
+
+            // Split every block that was only partly marked
+            for (int i = 0; i < touchedCount; i++) {
+                int b = touched[i];
+                int count = marked[b];
+                marked[b] = 0;
+                if (count == end[b] - first[b]) continue;
+
+                // The marked part becomes a new block
+                int newBlock = blocks++;
+                first[newBlock] = first[b];
+                end[newBlock] = first[b] + count;
+                first[b] += count;
+                for (int j = first[newBlock]; j < end[newBlock]; j++) {
+                    blockOf[elements[j]] = newBlock;
+                }
+
+                // Keep both halves waiting if b was, otherwise only the
+                // smaller half needs to be checked
+                for (int c = 0; c < k; c++) {
+                    int next;
+                    if (waiting[b * k + c]) {
+                        next = newBlock * k + c;
+                    } else if (count <= end[b] - first[b]) {
+                        next = newBlock * k + c;
+                    } else {
+                        next = b * k + c;
+                    }
+                    if (!waiting[next]) {
+                        waiting[next] = true;
+                        work[workSize++] = next;
+                    }
+                }
+            }
+        }
+
+        return blockOf;
+    }
+
+    /**
+     * Check if the given FSA's are equivalent, using Hopcroft and Karp's
+     * union-find algorithm. NFAs are converted to DFAs first.
      *
      * @param a: The first FSA
      * @param b: The second FSA
      * @return True: if the two FSA's are equivalent, false otherwise
      */
     public static boolean equivP(FSA a, FSA b) {
-        // To save time, we'll convert our FSA's to NFA's
-        return false;
+        return counterexample(a, b) == null;
+    }
+
+    /**
+     * Find a shortest string accepted by exactly one of the given FSA's,
+     * using Hopcroft and Karp's union-find algorithm.
+     *
+     * Rather than building the automaton C = (A intersect ^B) U
+     * (B intersect ^A) from the proof for Theorem 4.5, the two automata are
+     * walked together from their start states. Every pair of states we meet
+     * must be equivalent if A and B are, so each pair is merged into one
+     * class of a union-find structure, and a pair is only explored if its
+     * states aren't already in the same class.
+     *
+     * Informal Proof.
+     * ---------------
+     * If A and B are equivalent, every pair we meet accepts the same strings,
+     * so no pair ever has one accept state and one reject state.
+     *
+     * If some explored pair has one accept state and one reject state, the
+     * letters leading to it form a string accepted by exactly one of A or B.
+     *
+     * Skipping a pair (p, q) that is already in one class is safe: the class
+     * was built from a chain p = r_0, r_1, ..., r_n = q of pairs (r_i,
+     * r_i+1) that were explored, so if p and q differ on some string w, then
+     * so does some explored pair (r_i, r_i+1), which was met no later than
+     * (p, q). Since the pairs are explored breadth first, the first
+     * mismatch found is at the end of a shortest distinguishing string.
+     *
+     * Each merge lowers the number of classes, so at most |Q_A| + |Q_B|
+     * pairs are explored, which is nearly linear time overall.
+     * @param a: The first FSA
+     * @param b: The second FSA
+     * @return A: shortest string accepted by one FSA but not the other, or
+     *          null if the FSA's are equivalent
+     */
+    public static String counterexample(FSA a, FSA b) {
+        CompiledDFA c1 = NFA.convertToDFA(a).compile();
+        CompiledDFA c2 = NFA.convertToDFA(b).compile();
+        int n1 = c1.stateCount();
+        int n2 = c2.stateCount();
+
+        // Both automata read S = S_a U S_b, and a letter outside of either
+        // alphabet leads to the dead state
+        List<String> letters = setUnion(a.alphabet, b.alphabet);
+        letters.remove(EPSILON);
+        int k = letters.size();
+        int[] symbols1 = new int[k];
+        int[] symbols2 = new int[k];
+        for (int i = 0; i < k; i++) {
+            symbols1[i] = c1.symbolOf(letters.get(i).charAt(0));
+            symbols2[i] = c2.symbolOf(letters.get(i).charAt(0));
+        }
+
+        // The states of A are numbered 0 .. n1-1, the states of B are
+        // numbered n1 .. n1+n2-1, and the dead state of both is n1+n2
+        int dead = n1 + n2;
+        int[] parent = new int[dead + 1];
+        int[] rank = new int[dead + 1];
+        for (int q = 0; q <= dead; q++) {
+            parent[q] = q;
+        }
+
+        // The explored pairs, with the pair and letter they were reached from
+        int[] firsts = new int[dead + 1];
+        int[] seconds = new int[dead + 1];
+        int[] from = new int[dead + 1];
+        int[] letter = new int[dead + 1];
+        int found = 0;
+
+        // Start with (q_a, q_b)
+        firsts[0] = c1.startState();
+        seconds[0] = c2.startState();
+        from[0] = -1;
+        found++;
+        union(parent, rank, firsts[0], n1 + seconds[0]);
+
+        for (int i = 0; i < found; i++) {
+            int r1 = firsts[i];
+            int r2 = seconds[i];
+
+            // A mismatch means the path to this pair is a counterexample
+            if (c1.isAccepting(r1) != c2.isAccepting(r2)) {
+                StringBuilder word = new StringBuilder();
+                for (int j = i; from[j] >= 0; j = from[j]) {
+                    word.append(letters.get(letter[j]));
+                }
+                return word.reverse().toString();
+            }
+
+            for (int l = 0; l < k; l++) {
+                int t1 = r1 == CompiledDFA.DEAD || symbols1[l] < 0
+                        ? CompiledDFA.DEAD : c1.next(r1, symbols1[l]);
+                int t2 = r2 == CompiledDFA.DEAD || symbols2[l] < 0
+                        ? CompiledDFA.DEAD : c2.next(r2, symbols2[l]);
+                int id1 = t1 == CompiledDFA.DEAD ? dead : t1;
+                int id2 = t2 == CompiledDFA.DEAD ? dead : n1 + t2;
+
+                // Only explore pairs that aren't already known to match
+                if (union(parent, rank, id1, id2)) {
+                    firsts[found] = t1;
+                    seconds[found] = t2;
+                    from[found] = i;
+                    letter[found] = l;
+                    found++;
+                }
+            }
+        }
+
+        return null;
+    }
+
+    /*
+     * Helper method to merge the union-find classes of p and q, by rank with
+     * path halving. Returns false if they were already in the same class.
+     */
+    private static boolean union(int[] parent, int[] rank, int p, int q) {
+        p = find(parent, p);
+        q = find(parent, q);
+        if (p == q) return false;
+
+        if (rank[p] < rank[q]) {
+            parent[p] = q;
+        } else if (rank[p] > rank[q]) {
+            parent[q] = p;
+        } else {
+            parent[q] = p;
+            rank[p]++;
+        }
+        return true;
+    }
+
+    /*
+     * Helper method to find the representative of q's union-find class
+     */
+    private static int find(int[] parent, int q) {
+        while (parent[q] != q) {
+            parent[q] = parent[parent[q]];
+            q = parent[q];
+        }
+        return q;
     }
 
     /**
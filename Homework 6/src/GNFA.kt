@@ -11,10 +11,44 @@ import kotlin.collections.HashMap
 class GNFA(val name: String,
            val alphabet: Set<Char>,
            val states: Set<String>,
-           val transitions: HashMap<Pair<String, String>, RegExpr?>,
+           transitions: Map<Pair<String, String>, RegExpr?>,
            val startState: String,
            val acceptState: String) {
 
+    // The states in a fixed order, so each one has an index
+    private val stateList = states.toList()
+    // The index of each state in stateList
+    private val stateIds = HashMap<String, Int>()
+    // The enabled transitions, keyed by the indices of both states packed
+    // into a long, so looking one up doesn't build a Pair
+    private val table = LongObjectMap<RegExpr>()
+
+    init {
+        for ((i, q) in stateList.withIndex()) {
+            stateIds[q] = i
+        }
+        for ((pair, expr) in transitions) {
+            val from = stateIds[pair.first]
+            val to = stateIds[pair.second]
+            // Disabled transitions and unknown states are left out
+            if (from != null && to != null && expr != null) {
+                table.put(key(from, to), expr)
+            }
+        }
+    }
+
+    /**
+     * Look up the transition between two states.
+     * @param from: The state the transition leaves
+     * @param to: The state the transition enters
+     * @return: The RegExp labeling the transition, null if it's disabled
+     */
+    fun transition(from: String, to: String): RegExpr? {
+        val i = stateIds[from] ?: return null
+        val j = stateIds[to] ?: return null
+        return table.get(key(i, j))
+    }
+
     /**
      * Run the GNFA on the given String.
      * @param s: The String to match against the GNFA
@@ -33,10 +67,11 @@ class GNFA(val name: String,
         // Return true if the current state is the accept state
         if (current == acceptState) return true
 
+        val currentId = stateIds[current] ?: return false
         // Check each state as a potential state
-        for (potentialNew in states) {
+        for ((newId, potentialNew) in stateList.withIndex()) {
             // Get the transition for the current state and the potential
-            val stateTrans = transitions[Pair(current, potentialNew)]
+            val stateTrans = table.get(key(currentId, newId))
             // Check if the transition is enabled
             if (stateTrans != null) {
                 // Try to match the RegExp and consume the match if found
@@ -94,7 +129,7 @@ class GNFA(val name: String,
             // Loop over the column states
             for (c in 0 until states.size) {
                 // Find the transition expression for the given pair of states
-                val exprObj = transitions[Pair(statesList[r], statesList[c])]
+                val exprObj = transition(statesList[r], statesList[c])
                 // Label the transition as disabled if its RegExp is null
                 val expr = if (exprObj == null) {
                     ".."
@@ -143,6 +178,13 @@ class GNFA(val name: String,
 
     companion object {
 
+        /*
+         * Helper function to pack the indices of two states into the key of
+         * their transition
+         */
+        private fun key(from: Int, to: Int): Long =
+                (from.toLong() shl 32) or to.toLong()
+
         /* We initialize the Regex's in a companion object so they don't need
          * to be reinitialized for each GNFA instance.
          */
@@ -0,0 +1,426 @@
+import javax.tools.*;
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.lang.ref.WeakReference;
+import java.net.URI;
+import java.util.*;
+import java.util.function.Predicate;
+
+/**
+ * A compiled DFA whose matches(..) runs in a class generated for that
+ * automaton alone, instead of looking transitions up in a table.
+ *
+ * Each state becomes one block of a switch, and each of its transitions one
+ * case on the input character, so the JIT sees the automaton as straight
+ * line code with the state ids and letters as constants:
+ *     run: for (;;) {
+ *         switch (state) {
+ *             case 0:
+ *                 // letters that stay in state 0 are read in a tight loop
+ *                 scan: while (i < n) { switch (s.charAt(i)) { ... } }
+ *                 if (i == n) return false;
+ *                 switch (s.charAt(i++)) {
+ *                     case 'b': state = 1; continue run;
+ *                     default: return false;
+ *                 }
+ *             ...
+ *         }
+ *     }
+ * The class is compiled from source with the system Java compiler and
+ * loaded in its own class loader, so it is unloaded once nothing uses the
+ * matcher anymore. Automata with the same structure share one class.
+ *
+ * The gain comes mostly from the self loops (scanning text for a keyword
+ * stays in one loop for almost every character) and from inputs whose
+ * branches are predictable. On random input that jumps between states at
+ * every character, the two switches mispredict where the table just loads,
+ * so the table matcher is faster there.
+ *
+ * HotSpot won't JIT compile methods longer than 8000 bytes of bytecode,
+ * and a generated method that is interpreted is much slower than the table,
+ * so large automata (and runtimes without a compiler) keep the table
+ * matcher (see of(..)).
+ */
+final class GeneratedDFA extends CompiledDFA {
+
+    // Rough size in bytecode of one transition case, and of one state block
+    private static final int CASE_BYTES = 16;
+    private static final int STATE_BYTES = 48;
+
+    // The largest estimated size of a generated method (HotSpot's
+    // HugeMethodLimit)
+    static final int MAX_METHOD_BYTES = 8000;
+
+    // Generated matchers by the structure of their automaton. Every
+    // GeneratedDFA using an entry holds the very Shape that is its key (see
+    // Entry), so entries go away with the last of them
+    private static final Map<Shape, Entry> cache = new WeakHashMap<>();
+
+    // Numbers the generated classes (guarded by the cache's lock)
+    private static int generated = 0;
+
+    // The table matcher, for next(..) and the other run modes
+    private final CompiledDFA table;
+
+    // The structure of the automaton, the same object as its cache key,
+    // which keeps the entry alive
+    private final Shape shape;
+
+    // An instance of the generated class
+    private final Predicate<CharSequence> matcher;
+
+    private GeneratedDFA(CompiledDFA table, Shape shape,
+                         Predicate<CharSequence> matcher) {
+        super(table.label, table.stateNames, table.symbols, table.accepting,
+                table.kinds);
+        this.table = table;
+        this.shape = shape;
+        this.matcher = matcher;
+    }
+
+    /**
+     * Generate a matcher class for the given table matcher.
+     * @param table: The compiled DFA
+     * @return A: GeneratedDFA, or the table itself if the automaton is too
+     *          large or no compiler is available
+     */
+    static CompiledDFA of(CompiledDFA table) {
+        if (estimateSize(table) > MAX_METHOD_BYTES) return table;
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        if (compiler == null) return table;
+
+        // Look the structure up, or claim it. Compiling takes far longer
+        // than anything else here, so it's done outside of the lock: other
+        // automata aren't held up, and the same one waits for the thread
+        // that's compiling it
+        Shape shape = new Shape(table);
+        Entry entry;
+        String name = null;
+        synchronized (cache) {
+            entry = cache.get(shape);
+            Shape key = entry == null ? null : entry.key.get();
+            if (key == null || entry.isCollected()) {
+                name = "GeneratedMatcher" + generated++;
+                entry = new Entry(shape);
+                cache.put(shape, entry);
+            } else {
+                // Hold the key itself rather than an equal Shape, or the
+                // entry would go away with whichever GeneratedDFA made it
+                shape = key;
+            }
+        }
+
+        Predicate<CharSequence> matcher = null;
+        if (name != null) {
+            // The class name is filled in last, so the source only depends
+            // on the structure of the automaton
+            try {
+                matcher = load(compiler, name,
+                        generateSource(table).replace("$NAME", name));
+            } finally {
+                // Never leave anyone waiting on a failed compile
+                entry.complete(matcher);
+            }
+            if (matcher == null) {
+                synchronized (cache) {
+                    cache.remove(shape, entry);
+                }
+            }
+        } else {
+            matcher = entry.await();
+        }
+        return matcher == null ? table
+                : new GeneratedDFA(table, shape, matcher);
+    }
+
+    /*
+     * Helper method to estimate the size of the generated method in bytes
+     */
+    private static int estimateSize(CompiledDFA table) {
+        int live = 0;
+        for (int q = 0; q < table.stateCount(); q++) {
+            for (int a = 0; a < table.alphabetSize(); a++) {
+                if (table.next(q, a) != DEAD) live++;
+            }
+        }
+        return live * CASE_BYTES + table.stateCount() * STATE_BYTES;
+    }
+
+    /*
+     * Helper method to write the source of the matcher class, with $NAME in
+     * place of the class name
+     */
+    static String generateSource(CompiledDFA table) {
+        int n = table.stateCount();
+        int k = table.alphabetSize();
+        StringBuilder src = new StringBuilder();
+        src.append("public final class $NAME implements ")
+                .append("java.util.function.Predicate<CharSequence> {\n")
+                .append("  public boolean test(CharSequence s) {\n")
+                .append("    final int n = s.length();\n")
+                .append("    int i = 0;\n")
+                .append("    int state = 0;\n")
+                .append("    run: for (;;) {\n")
+                .append("      switch (state) {\n");
+
+        for (int q = 0; q < n; q++) {
+            src.append("        case ").append(q).append(": {\n");
+
+            // An absorbing state only has to check the rest is in the
+            // alphabet
+            if (table.isAbsorbing(q)) {
+                src.append("          while (i < n) {\n")
+                        .append("            switch (s.charAt(i++)) {\n");
+                for (int a = 0; a < k; a++) {
+                    src.append("              case ")
+                            .append((int) table.symbolAt(a)).append(":\n");
+                }
+                src.append("                continue;\n")
+                        .append("              default: return false;\n")
+                        .append("            }\n")
+                        .append("          }\n")
+                        .append("          return true;\n")
+                        .append("        }\n");
+                continue;
+            }
+
+            // Letters that loop back to q are read without leaving the block
+            boolean loops = false;
+            for (int a = 0; a < k; a++) {
+                if (table.next(q, a) == q) {
+                    if (!loops) {
+                        src.append("          scan: while (i < n) {\n")
+                                .append("            switch (s.charAt(i)) {\n");
+                        loops = true;
+                    }
+                    src.append("              case ")
+                            .append((int) table.symbolAt(a)).append(":\n");
+                }
+            }
+            if (loops) {
+                src.append("                i++; continue scan;\n")
+                        .append("              default: break scan;\n")
+                        .append("            }\n")
+                        .append("          }\n");
+            }
+
+            // At the end of the input, accept if this is an accept state
+            src.append("          if (i == n) return ")
+                    .append(table.isAccepting(q)).append(";\n")
+                    .append("          switch (s.charAt(i++)) {\n");
+            for (int a = 0; a < k; a++) {
+                int next = table.next(q, a);
+                if (next != DEAD && next != q) {
+                    src.append("            case ")
+                            .append((int) table.symbolAt(a))
+                            .append(": state = ").append(next)
+                            .append("; continue run;\n");
+                }
+            }
+            // Missing transitions and other letters fall into the dead state
+            src.append("            default: return false;\n")
+                    .append("          }\n")
+                    .append("        }\n");
+        }
+
+        src.append("        default: return false;\n")
+                .append("      }\n")
+                .append("    }\n")
+                .append("  }\n")
+                .append("}\n");
+        return src.toString();
+    }
+
+    /*
+     * Helper method to compile the source in memory and create an instance
+     * of the class in a new class loader, returning null if that fails
+     */
+    @SuppressWarnings("unchecked")
+    private static Predicate<CharSequence> load(JavaCompiler compiler,
+                                                String name, String source) {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final String src = source;
+        JavaFileObject input = new SimpleJavaFileObject(
+                URI.create("string:///" + name + ".java"),
+                JavaFileObject.Kind.SOURCE) {
+            @Override
+            public CharSequence getCharContent(boolean ignoreErrors) {
+                return src;
+            }
+        };
+
+        // Keep the class file in memory instead of writing it to disk
+        JavaFileManager files = new ForwardingJavaFileManager<JavaFileManager>(
+                compiler.getStandardFileManager(null, null, null)) {
+            @Override
+            public JavaFileObject getJavaFileForOutput(
+                    Location location, String className,
+                    JavaFileObject.Kind kind, FileObject sibling) {
+                return new SimpleJavaFileObject(
+                        URI.create("bytes:///" + className + ".class"), kind) {
+                    @Override
+                    public OutputStream openOutputStream() {
+                        return bytes;
+                    }
+                };
+            }
+        };
+
+        boolean compiled = compiler.getTask(null, files, null,
+                Collections.singletonList("-g:none"), null,
+                Collections.singletonList(input)).call();
+        if (!compiled) return null;
+
+        try {
+            Class<?> c = new GeneratedLoader(GeneratedDFA.class
+                    .getClassLoader()).define(name, bytes.toByteArray());
+            return (Predicate<CharSequence>) c.getConstructor().newInstance();
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+
+    @Override
+    public int stateCount() {
+        return table.stateCount();
+    }
+
+    @Override
+    public String stateName(int state) {
+        return table.stateName(state);
+    }
+
+    @Override
+    public boolean isAccepting(int state) {
+        return table.isAccepting(state);
+    }
+
+    @Override
+    public int next(int state, int symbol) {
+        return table.next(state, symbol);
+    }
+
+    @Override
+    public boolean matches(CharSequence str) {
+        return matcher.test(str);
+    }
+
+    @Override
+    String width() {
+        return "generated " + table.width();
+    }
+
+    /*
+     * A class loader for one generated class, so the class can be unloaded
+     * on its own
+     */
+    private static final class GeneratedLoader extends ClassLoader {
+        GeneratedLoader(ClassLoader parent) {
+            super(parent);
+        }
+
+        Class<?> define(String name, byte[] bytes) {
+            return defineClass(name, bytes, 0, bytes.length);
+        }
+    }
+
+    /*
+     * The structure of an automaton, which is all the generated source
+     * depends on: the transitions, the letters and the kind of each state.
+     * A fraction of the size of the source, and quick to hash and compare
+     */
+    private static final class Shape {
+        // Flag bits for each state
+        private static final byte ACCEPTING = 1;
+        private static final byte ABSORBING = 2;
+
+        private final int[] next;
+        private final char[] symbols;
+        private final byte[] flags;
+        private final int hash;
+
+        Shape(CompiledDFA table) {
+            int n = table.stateCount();
+            int k = table.alphabetSize();
+            next = new int[n * k];
+            symbols = new char[k];
+            flags = new byte[n];
+            for (int a = 0; a < k; a++) {
+                symbols[a] = table.symbolAt(a);
+            }
+            for (int q = 0; q < n; q++) {
+                for (int a = 0; a < k; a++) {
+                    next[q * k + a] = table.next(q, a);
+                }
+                flags[q] = (byte) ((table.isAccepting(q) ? ACCEPTING : 0)
+                        | (table.isAbsorbing(q) ? ABSORBING : 0));
+            }
+            hash = 31 * (31 * Arrays.hashCode(next) + Arrays.hashCode(symbols))
+                    + Arrays.hashCode(flags);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Shape)) return false;
+            Shape other = (Shape) o;
+            return hash == other.hash && Arrays.equals(next, other.next)
+                    && Arrays.equals(symbols, other.symbols)
+                    && Arrays.equals(flags, other.flags);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    /*
+     * A cache entry, which starts out pending while its class is compiled.
+     * The key and the matcher are held weakly here, and strongly by the
+     * GeneratedDFAs using the entry, so the entry never keeps its own key
+     * alive
+     */
+    private static final class Entry {
+        final WeakReference<Shape> key;
+        private WeakReference<Predicate<CharSequence>> matcher;
+        private boolean done;
+
+        Entry(Shape key) {
+            this.key = new WeakReference<>(key);
+        }
+
+        /*
+         * Publish the compiled matcher, or null if compiling failed
+         */
+        synchronized void complete(Predicate<CharSequence> matcher) {
+            this.matcher = matcher == null ? null
+                    : new WeakReference<>(matcher);
+            done = true;
+            notifyAll();
+        }
+
+        /*
+         * Wait for the compile to finish, returning null if it failed
+         */
+        synchronized Predicate<CharSequence> await() {
+            boolean interrupted = false;
+            while (!done) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) Thread.currentThread().interrupt();
+            return matcher == null ? null : matcher.get();
+        }
+
+        /*
+         * Whether the compile finished, but its matcher is gone (or never
+         * was), so the entry can't be used
+         */
+        synchronized boolean isCollected() {
+            return done && (matcher == null || matcher.get() == null);
+        }
+    }
+}
@@ -0,0 +1,311 @@
+import java.util.*;
+
+/**
+ * The universal Levenshtein automaton for a fixed distance k (Schulz and
+ * Mihov, "Fast String Correction with Levenshtein Automata", 2002), for
+ * finding every word of a dictionary DFA within k edits (insertions,
+ * deletions and substitutions) of a query.
+ *
+ * The nondeterministic automaton for a query w has a state i#e for having
+ * matched i letters of w with e edits. Reading a letter x from i#e leads to
+ *     (i+1)#e         if w[i] == x
+ *     i#(e+1)         x was inserted
+ *     (i+1)#(e+1)     x replaced w[i]
+ *     (i+j+1)#(e+j)   w[i..i+j) was deleted and w[i+j] == x, j <= k - e
+ * and i#e accepts the query once n - i + e <= k. Which of these moves apply
+ * only depends on where x occurs in w near i, never on the letters
+ * themselves: after t letters every reachable position has
+ * t - k <= i <= t + k, so reading x only needs the bit vector of
+ *     w[t - k + j] == x      for j = 0 .. 2k
+ * and how much of that window is still inside w. Relative to t - k, the
+ * deterministic states (sets of positions) are the same for every query,
+ * so one automaton per k serves every query, and every step is one table
+ * lookup on (state, bit vector).
+ *
+ * Positions that another position subsumes (i#e covers j#f if e < f and
+ * |i - j| <= f - e, since anything j#f accepts, i#e accepts too) are
+ * dropped, which keeps the number of states small. The automaton is built
+ * lazily: a state's transition on a vector is only worked out the first
+ * time some query needs it, and then kept for all later queries.
+ *
+ * Against a dictionary, the two are run in step over the dictionary's
+ * paths (see search(..)), cutting off every path as soon as the
+ * Levenshtein state becomes empty, so only the prefixes that could still
+ * be within k edits of the query are visited.
+ */
+public final class LevenshteinAutomaton {
+
+    // The largest distance supported. Each state has a row of
+    // (2k + 2) * 2^(2k + 1) transitions, which grows quickly with k
+    public static final int MAX_DISTANCE = 4;
+
+    // One automaton per distance, shared by every query
+    private static final LevenshteinAutomaton[] shared =
+            new LevenshteinAutomaton[MAX_DISTANCE + 1];
+
+    // The id of the empty set of positions, and of the start state
+    private static final int EMPTY = 0;
+    private static final int START = 1;
+
+    // Offset added to a state's reach so it fits in the low bits of an
+    // entry (reach is between -k and 2k)
+    private static final int REACH_BIAS = 64;
+
+    // The distance
+    private final int k;
+
+    // The number of letters of the query in the window, 2k + 1
+    private final int width;
+
+    // The states, as sorted arrays of positions r * (k + 1) + e, where
+    // r = i - t + k
+    private final List<int[]> positions = new ArrayList<>();
+    private final Map<List<Integer>, Integer> ids = new HashMap<>();
+
+    // The transitions of each state, indexed by (length << width) | bits
+    // for a window with 'length' letters inside the query. Each entry is
+    //     (target + 1) << 8 | (reach of target + REACH_BIAS)
+    // or 0 if it hasn't been worked out yet
+    // * Entries are written once under the lock, and hold everything a
+    //   step needs, so reading them without the lock is safe: a reader
+    //   sees either 0 (and takes the lock) or the final value
+    private volatile int[][] rows = new int[0][];
+
+    private LevenshteinAutomaton(int k) {
+        this.k = k;
+        this.width = 2 * k + 1;
+        intern(new int[0]);
+        intern(new int[] { k * (k + 1) });
+    }
+
+    /**
+     * Get the automaton for the given distance, which is built (lazily)
+     * only once.
+     * @param k: The largest number of edits allowed, at most MAX_DISTANCE
+     * @return The: universal Levenshtein automaton for k
+     */
+    public static LevenshteinAutomaton forDistance(int k) {
+        if (k < 0 || k > MAX_DISTANCE) {
+            throw new IllegalArgumentException("Unsupported distance: " + k);
+        }
+        synchronized (shared) {
+            if (shared[k] == null) shared[k] = new LevenshteinAutomaton(k);
+            return shared[k];
+        }
+    }
+
+    /**
+     * @return The: largest number of edits allowed
+     */
+    public int distance() {
+        return k;
+    }
+
+    /**
+     * @return The: number of states worked out so far
+     */
+    public synchronized int stateCount() {
+        return positions.size();
+    }
+
+    /**
+     * Check whether two words are within k edits of each other.
+     * @param query: One word
+     * @param word: The other word
+     * @return True: if the edit distance is at most k
+     */
+    public boolean accepts(CharSequence query, CharSequence word) {
+        int state = START;
+        int reach = k;
+        for (int t = 0; t < word.length(); t++) {
+            int entry = step(state, input(query, t, word.charAt(t)));
+            state = (entry >>> 8) - 1;
+            if (state == EMPTY) return false;
+            reach = (entry & 0xFF) - REACH_BIAS;
+        }
+        return query.length() - word.length() <= reach;
+    }
+
+    /**
+     * Find every word of the dictionary within k edits of the query.
+     * @param dictionary: A matcher for the dictionary's words, which may
+     *                  even be infinite
+     * @param query: The word to look up
+     * @return The: matching words, sorted letter by letter
+     */
+    public List<String> search(CompiledDFA dictionary, CharSequence query) {
+        List<String> found = new ArrayList<>();
+        int q = dictionary.startState();
+        if (dictionary.isDeadEnd(q)) return found;
+
+        // Try the letters in order so the words come out sorted
+        int size = dictionary.alphabetSize();
+        Integer[] sorted = new Integer[size];
+        for (int a = 0; a < size; a++) {
+            sorted[a] = a;
+        }
+        Arrays.sort(sorted, Comparator.comparingInt(dictionary::symbolAt));
+        int[] order = new int[size];
+        for (int a = 0; a < size; a++) {
+            order[a] = sorted[a];
+        }
+
+        search(dictionary, order, query, q, START, k, new StringBuilder(),
+                found);
+        return found;
+    }
+
+    /*
+     * Helper method to walk the dictionary and the automaton in step from
+     * the given pair of states, after reading 'word'
+     */
+    private void search(CompiledDFA dictionary, int[] order,
+                        CharSequence query, int q, int state, int reach,
+                        StringBuilder word, List<String> found) {
+        int t = word.length();
+        if (dictionary.isAccepting(q) && query.length() - t <= reach) {
+            found.add(word.toString());
+        }
+        for (int a : order) {
+            int next = dictionary.next(q, a);
+            if (next == CompiledDFA.DEAD) continue;
+            char c = dictionary.symbolAt(a);
+            int entry = step(state, input(query, t, c));
+            int target = (entry >>> 8) - 1;
+            // No way to get back within k edits along this path
+            if (target == EMPTY) continue;
+            word.append(c);
+            search(dictionary, order, query, next, target,
+                    (entry & 0xFF) - REACH_BIAS, word, found);
+            word.setLength(t);
+        }
+    }
+
+    /*
+     * Helper method to find the input for reading c after t letters: the
+     * bit vector of where c occurs in the window w[t - k .. t + k], and how
+     * much of the window is inside the query
+     */
+    private int input(CharSequence query, int t, char c) {
+        int from = t - k;
+        int length = Math.max(0, Math.min(width, query.length() - from));
+        int bits = 0;
+        for (int j = Math.max(0, -from); j < length; j++) {
+            if (query.charAt(from + j) == c) bits |= 1 << j;
+        }
+        return length << width | bits;
+    }
+
+    /*
+     * Helper method to take one step, working the transition out if no
+     * query has needed it before
+     */
+    private int step(int state, int input) {
+        int[][] current = rows;
+        if (state < current.length) {
+            int entry = current[state][input];
+            if (entry != 0) return entry;
+        }
+        synchronized (this) {
+            return transition(state, input);
+        }
+    }
+
+    /*
+     * Helper method to work out a transition on the NFA positions, called
+     * with the lock held
+     */
+    private int transition(int state, int input) {
+        int[] row = rows[state];
+        if (row[input] != 0) return row[input];
+
+        int length = input >>> width;
+        int bits = input & ((1 << width) - 1);
+        // marked[r][e] for every position of the next state
+        boolean[][] marked = new boolean[width][k + 1];
+        for (int p : positions.get(state)) {
+            int r = p / (k + 1);
+            int e = p % (k + 1);
+            // Matching w[i] (r stays the same as the window moves along)
+            if (r < length && (bits >> r & 1) != 0) marked[r][e] = true;
+            if (e < k) {
+                // Insertion, and substitution of w[i]
+                marked[r - 1][e + 1] = true;
+                if (r < length) marked[r][e + 1] = true;
+                // Deleting w[i .. i + j) to match w[i + j]
+                for (int j = 1; j <= k - e; j++) {
+                    if (r + j < length && (bits >> (r + j) & 1) != 0) {
+                        marked[r + j][e + j] = true;
+                    }
+                }
+            }
+        }
+
+        // Keep the positions no other one subsumes
+        List<Integer> kept = new ArrayList<>();
+        for (int r = 0; r < width; r++) {
+            for (int e = 0; e <= k; e++) {
+                if (marked[r][e] && !subsumed(marked, r, e)) {
+                    kept.add(r * (k + 1) + e);
+                }
+            }
+        }
+        int[] next = new int[kept.size()];
+        for (int j = 0; j < next.length; j++) {
+            next[j] = kept.get(j);
+        }
+
+        int target = intern(next);
+        int entry = (target + 1) << 8 | (reach(next) + REACH_BIAS);
+        rows[state][input] = entry;
+        return entry;
+    }
+
+    /*
+     * Helper method to check whether a position with fewer edits covers
+     * r#e
+     */
+    private boolean subsumed(boolean[][] marked, int r, int e) {
+        for (int f = 0; f < e; f++) {
+            for (int s = Math.max(0, r - (e - f));
+                 s <= Math.min(width - 1, r + (e - f)); s++) {
+                if (marked[s][f]) return true;
+            }
+        }
+        return false;
+    }
+
+    /*
+     * Helper method for the acceptance test: a state accepts the query
+     * after t letters if n - t <= reach, the largest r - e of its positions
+     * (since i#e accepts if n - i + e <= k, and i = t - k + r)
+     */
+    private int reach(int[] state) {
+        int reach = -REACH_BIAS;
+        for (int p : state) {
+            reach = Math.max(reach, p / (k + 1) - p % (k + 1));
+        }
+        return reach;
+    }
+
+    /*
+     * Helper method to number a set of positions, called with the lock
+     * held (or from the constructor)
+     */
+    private int intern(int[] state) {
+        List<Integer> key = new ArrayList<>();
+        for (int p : state) {
+            key.add(p);
+        }
+        Integer id = ids.get(key);
+        if (id != null) return id;
+
+        id = positions.size();
+        ids.put(key, id);
+        positions.add(state);
+        int[][] grown = Arrays.copyOf(rows, id + 1);
+        grown[id] = new int[(width + 1) << width];
+        rows = grown;
+        return id;
+    }
+}
@@ -1,3 +1,6 @@
+import java.io.IOException
+import java.nio.file.Path
+import java.nio.file.Paths
 import java.util.*
 
 /**
@@ -31,6 +34,8 @@ class Lexaard {
                 "print" -> cmdPrint()
                 "define" -> cmdDefine()
                 "run" -> cmdRun()
+                "save" -> cmdSave()
+                "find" -> cmdFind()
                 "else" -> println("Please enter a command")
             }
         }
@@ -92,6 +97,8 @@ class Lexaard {
         // If the object is actually a runnable, run it on the string.
         val result = when (runnable) {
             is FSA -> runnable.runString(str)
+            is CompiledDFA -> runnable.matches(str)
+            is SFA -> runnable.runString(str)
             is RegExpr -> runnable.runOn(str)
             is GNFA -> runnable.runOn(str)
             else -> {
@@ -107,6 +114,58 @@ class Lexaard {
             println("reject")
     }
 
+    /**
+     * Parse the provided automaton and print every span of the given string
+     * that it accepts, leftmost-longest and without overlaps.
+     */
+    private fun cmdFind() {
+        val fsa = retrieveObject()
+        val str = retrieveObject()
+
+        if (str !is String) {
+            println("Your second argument needs to be a string!")
+            return
+        }
+
+        val text = str.trim('"')
+        val matches = when (fsa) {
+            is FSA -> fsa.findAll(text, MatchKind.LEFTMOST_LONGEST)
+            is CompiledDFA -> fsa.findAll(text, MatchKind.LEFTMOST_LONGEST)
+            else -> {
+                println("That object isn't a finite automaton!")
+                return
+            }
+        }
+
+        for (match in matches)
+            println("$match ${match.`in`(text)}")
+    }
+
+    /**
+     * Parse the provided automaton and write it to the given file in the
+     * binary format of AutomatonFile.
+     */
+    private fun cmdSave() {
+        val fsa = retrieveObject()
+        val file = retrieveObject()
+
+        if (file !is String) {
+            println("Your second argument needs to be a string!")
+            return
+        }
+
+        try {
+            when (fsa) {
+                is FSA -> AutomatonFile.write(fsa, Paths.get(file.trim('"')))
+                is CompiledDFA ->
+                    AutomatonFile.write(fsa, Paths.get(file.trim('"')))
+                else -> println("That object isn't a finite automaton!")
+            }
+        } catch (e: IOException) {
+            println("Couldn't write to $file: $e")
+        }
+    }
+
     /**
      * Parse a literal, find an object that's been registered, or evaluate a
      * function.
@@ -150,6 +209,55 @@ class Lexaard {
                 else null
             }
 
+            "loadFSA" -> {
+                val file = retrieveObject()
+                if (file is String)
+                    readFile(file) { AutomatonFile.load(it) }
+                else null
+            }
+
+            "mapDFA" -> {
+                val file = retrieveObject()
+                if (file is String)
+                    readFile(file) { AutomatonFile.map(it) }
+                else null
+            }
+
+            "compileDFA" -> {
+                val dfa = retrieveObject()
+                if (dfa is DFA)
+                    dfa.compile()
+                else null
+            }
+
+            "generateDFA" -> {
+                val dfa = retrieveObject()
+                if (dfa is DFA)
+                    dfa.generate()
+                else null
+            }
+
+            "combDFA" -> {
+                val dfa = retrieveObject()
+                if (dfa is DFA)
+                    dfa.compileComb()
+                else null
+            }
+
+            "fsa2sfa" -> {
+                val fsa = retrieveObject()
+                if (fsa is FSA)
+                    SFA.from(fsa)
+                else null
+            }
+
+            "sfaDeterminize" -> {
+                val sfa = retrieveObject()
+                if (sfa is SFA)
+                    sfa.determinize()
+                else null
+            }
+
             "dfaUnion" -> {
                 val dfa1 = retrieveObject()
                 val dfa2 = retrieveObject()
@@ -158,6 +266,37 @@ class Lexaard {
                 else null
             }
 
+            "dfaIntersection" -> {
+                val dfa1 = retrieveObject()
+                val dfa2 = retrieveObject()
+                if (dfa1 is DFA && dfa2 is DFA)
+                    DFA.intersection(dfa1, dfa2)
+                else null
+            }
+
+            "dfaDifference" -> {
+                val dfa1 = retrieveObject()
+                val dfa2 = retrieveObject()
+                if (dfa1 is DFA && dfa2 is DFA)
+                    DFA.difference(dfa1, dfa2)
+                else null
+            }
+
+            "dfaSymDifference" -> {
+                val dfa1 = retrieveObject()
+                val dfa2 = retrieveObject()
+                if (dfa1 is DFA && dfa2 is DFA)
+                    DFA.symmetricDifference(dfa1, dfa2)
+                else null
+            }
+
+            "dfaComplement" -> {
+                val dfa = retrieveObject()
+                if (dfa is DFA)
+                    DFA.complement(dfa)
+                else null
+            }
+
             "nfaUnion" -> {
                 val nfa1 = retrieveObject()
                 val nfa2 = retrieveObject()
@@ -188,6 +327,13 @@ class Lexaard {
                 else null
             }
 
+            "minimizeFSA" -> {
+                val fsa = retrieveObject()
+                if (fsa is FSA)
+                    FSA.minimize(fsa)
+                else null
+            }
+
             "fsaEquivP" -> {
                 val fsa1 = retrieveObject()
                 val fsa2 = retrieveObject()
@@ -255,6 +401,19 @@ class Lexaard {
         }
     }
 
+    /**
+     * Helper function to read an automaton from the file named by a string
+     * literal, reporting the error rather than ending the session if the
+     * file can't be read.
+     */
+    private fun readFile(file: String, read: (Path) -> Any?): Any? =
+        try {
+            read(Paths.get(file.trim('"')))
+        } catch (e: IOException) {
+            println("Couldn't read from $file: $e")
+            null
+        }
+
     /**
      * Helper function to pull out the raw component of a literal object.
      *
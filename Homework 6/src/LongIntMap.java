@@ -0,0 +1,97 @@
+import java.util.Arrays;
+
+/**
+ * A hash map from primitive longs to primitive ints, laid out like
+ * LongObjectMap (open addressing, at most half full), for numbering packed
+ * tuples of ids without boxing either side.
+ *
+ * Entries are never removed, since the constructions using it only ever
+ * number new tuples.
+ */
+final class LongIntMap {
+
+    // Marks a free slot. The key itself is kept on the side
+    private static final long FREE = Long.MIN_VALUE;
+
+    // The initial number of slots (always a power of two)
+    private static final int INITIAL_CAPACITY = 16;
+
+    private long[] keys;
+    private int[] values;
+    private int size;
+
+    // The value of the key FREE, which can't live in the table
+    private boolean hasFreeKey;
+    private int freeValue;
+
+    LongIntMap() {
+        keys = new long[INITIAL_CAPACITY];
+        values = new int[INITIAL_CAPACITY];
+        Arrays.fill(keys, FREE);
+    }
+
+    /**
+     * @param missing: The value to return if the key isn't in the map
+     * @return The: value stored under the key, or 'missing'
+     */
+    int get(long key, int missing) {
+        if (key == FREE) return hasFreeKey ? freeValue : missing;
+        int mask = keys.length - 1;
+        for (int i = LongObjectMap.slot(key, mask); ; i = (i + 1) & mask) {
+            long k = keys[i];
+            if (k == key) return values[i];
+            if (k == FREE) return missing;
+        }
+    }
+
+    /**
+     * Store a value under the key, replacing the old one.
+     */
+    void put(long key, int value) {
+        if (key == FREE) {
+            if (!hasFreeKey) size++;
+            hasFreeKey = true;
+            freeValue = value;
+            return;
+        }
+
+        int mask = keys.length - 1;
+        int i = LongObjectMap.slot(key, mask);
+        while (keys[i] != FREE && keys[i] != key) {
+            i = (i + 1) & mask;
+        }
+        values[i] = value;
+        if (keys[i] == FREE) {
+            keys[i] = key;
+            if (++size * 2 > keys.length) grow();
+        }
+    }
+
+    /**
+     * @return The: number of keys in the map
+     */
+    int size() {
+        return size;
+    }
+
+    /*
+     * Helper method to double the table
+     */
+    private void grow() {
+        long[] oldKeys = keys;
+        int[] oldValues = values;
+        keys = new long[oldKeys.length * 2];
+        values = new int[oldKeys.length * 2];
+        Arrays.fill(keys, FREE);
+        int mask = keys.length - 1;
+        for (int j = 0; j < oldKeys.length; j++) {
+            if (oldKeys[j] == FREE) continue;
+            int i = LongObjectMap.slot(oldKeys[j], mask);
+            while (keys[i] != FREE) {
+                i = (i + 1) & mask;
+            }
+            keys[i] = oldKeys[j];
+            values[i] = oldValues[j];
+        }
+    }
+}
@@ -0,0 +1,174 @@
+import java.util.Arrays;
+
+/**
+ * A hash map from primitive longs to objects, for keys made by packing a few
+ * ids into one long (like a state id and a letter), so lookups don't have to
+ * allocate a key object the way a Pair key does.
+ *
+ * Keys are stored in one long[] and values in a parallel Object[], with open
+ * addressing: a key lives in the first free slot at or after its hash, so a
+ * lookup is a scan of neighbouring slots instead of a walk through linked
+ * entries. The table is kept at most half full, which keeps the scans short.
+ * Removing shifts later entries of the same run back into the gap, so no
+ * tombstones are needed.
+ *
+ * Null values aren't stored: putting null removes the key, since a missing
+ * key already reads as null.
+ */
+final class LongObjectMap<V> {
+
+    // Marks a free slot. The key itself is kept on the side
+    private static final long FREE = Long.MIN_VALUE;
+
+    // The initial number of slots (always a power of two)
+    private static final int INITIAL_CAPACITY = 16;
+
+    private long[] keys;
+    private Object[] values;
+    private int size;
+
+    // The value of the key FREE, which can't live in the table
+    private boolean hasFreeKey;
+    private V freeValue;
+
+    LongObjectMap() {
+        keys = new long[INITIAL_CAPACITY];
+        values = new Object[INITIAL_CAPACITY];
+        Arrays.fill(keys, FREE);
+    }
+
+    /**
+     * @return The: value stored under the key, or null
+     */
+    @SuppressWarnings("unchecked")
+    V get(long key) {
+        if (key == FREE) return hasFreeKey ? freeValue : null;
+        int mask = keys.length - 1;
+        for (int i = slot(key, mask); ; i = (i + 1) & mask) {
+            long k = keys[i];
+            if (k == key) return (V) values[i];
+            if (k == FREE) return null;
+        }
+    }
+
+    /**
+     * Store a value under the key, or remove the key if the value is null.
+     */
+    void put(long key, V value) {
+        if (value == null) {
+            remove(key);
+            return;
+        }
+        if (key == FREE) {
+            if (!hasFreeKey) size++;
+            hasFreeKey = true;
+            freeValue = value;
+            return;
+        }
+
+        int mask = keys.length - 1;
+        int i = slot(key, mask);
+        while (keys[i] != FREE && keys[i] != key) {
+            i = (i + 1) & mask;
+        }
+        if (keys[i] == FREE) {
+            keys[i] = key;
+            // Keep the table at most half full
+            if (++size * 2 > keys.length) {
+                values[i] = value;
+                grow();
+                return;
+            }
+        }
+        values[i] = value;
+    }
+
+    /**
+     * Remove the key, if it's in the map.
+     */
+    void remove(long key) {
+        if (key == FREE) {
+            if (hasFreeKey) size--;
+            hasFreeKey = false;
+            freeValue = null;
+            return;
+        }
+
+        int mask = keys.length - 1;
+        int i = slot(key, mask);
+        while (keys[i] != key) {
+            if (keys[i] == FREE) return;
+            i = (i + 1) & mask;
+        }
+        size--;
+
+        // Shift back every later entry of the run that would be unreachable
+        // with a gap at i, i.e. whose home slot isn't between i and itself
+        int gap = i;
+        for (int j = (gap + 1) & mask; keys[j] != FREE; j = (j + 1) & mask) {
+            int home = slot(keys[j], mask);
+            if (((j - home) & mask) >= ((j - gap) & mask)) {
+                keys[gap] = keys[j];
+                values[gap] = values[j];
+                gap = j;
+            }
+        }
+        keys[gap] = FREE;
+        values[gap] = null;
+    }
+
+    /**
+     * @return The: number of keys in the map
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * Call the visitor with every key and value, in no particular order.
+     */
+    @SuppressWarnings("unchecked")
+    void forEach(Visitor<V> visitor) {
+        if (hasFreeKey) visitor.visit(FREE, freeValue);
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] != FREE) visitor.visit(keys[i], (V) values[i]);
+        }
+    }
+
+    /**
+     * Receives the entries of a map in forEach(..).
+     */
+    interface Visitor<V> {
+        void visit(long key, V value);
+    }
+
+    /*
+     * Helper method to find the home slot of a key. The multiply spreads
+     * keys that only differ in their high bits (like packed ids)
+     */
+    static int slot(long key, int mask) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32)) & mask;
+    }
+
+    /*
+     * Helper method to double the table
+     */
+    private void grow() {
+        long[] oldKeys = keys;
+        Object[] oldValues = values;
+        keys = new long[oldKeys.length * 2];
+        values = new Object[oldKeys.length * 2];
+        Arrays.fill(keys, FREE);
+        int mask = keys.length - 1;
+        for (int j = 0; j < oldKeys.length; j++) {
+            if (oldKeys[j] == FREE) continue;
+            int i = slot(oldKeys[j], mask);
+            while (keys[i] != FREE) {
+                i = (i + 1) & mask;
+            }
+            keys[i] = oldKeys[j];
+            values[i] = oldValues[j];
+        }
+    }
+}
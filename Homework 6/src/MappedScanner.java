@@ -0,0 +1,172 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Runs a compiled DFA directly over a memory-mapped file and reports the
+ * byte offsets at which it is in an accept state, i.e. the end of every
+ * prefix of the file that the DFA accepts.
+ *
+ * Each byte is read as the character with the same value (ISO-8859-1), as
+ * in FSA.runBytes(..). The file is never copied into a String: it is mapped
+ * one window at a time, so files larger than 2 GB (the limit of a single
+ * MappedByteBuffer) are handled by moving the window along.
+ *
+ * Offsets are produced lazily, so callers can stop whenever they like:
+ *     try (MappedScanner scan = new MappedScanner(dfa, file)) {
+ *         while (scan.hasNext()) {
+ *             long end = scan.nextOffset();
+ *             ...
+ *         }
+ *     }
+ * The scan stops on its own once the DFA falls into the dead state.
+ */
+public class MappedScanner implements Iterator<Long>, Closeable {
+
+    // The default number of bytes mapped at a time
+    static final long WINDOW_SIZE = 1L << 30;
+
+    // The matcher being run
+    private final CompiledDFA dfa;
+
+    // The file being scanned
+    private final FileChannel channel;
+
+    // The size of the file
+    private final long size;
+
+    // The number of bytes mapped at a time
+    private final long windowSize;
+
+    // The currently mapped window, and the offset of its first byte
+    private MappedByteBuffer window;
+    private long windowStart;
+
+    // The current state, and the offset of the next byte to read
+    private int state;
+    private long position;
+
+    // The next offset to report, or -1 if it hasn't been looked for yet
+    private long pending = -1;
+
+    // Whether the start state has been checked (for the empty prefix)
+    private boolean startChecked;
+
+    /**
+     * Open the given file for scanning with the given matcher.
+     * @param dfa: The compiled DFA to run
+     * @param file: The file to scan
+     * @throws IOException if the file can't be opened
+     */
+    public MappedScanner(CompiledDFA dfa, Path file) throws IOException {
+        this(dfa, file, WINDOW_SIZE);
+    }
+
+    /*
+     * Constructor with an explicit window size, which must be at most
+     * Integer.MAX_VALUE
+     */
+    MappedScanner(CompiledDFA dfa, Path file, long windowSize)
+            throws IOException {
+        this.dfa = dfa;
+        this.windowSize = windowSize;
+        channel = FileChannel.open(file, StandardOpenOption.READ);
+        size = channel.size();
+        state = dfa.startState();
+    }
+
+    /**
+     * @return True: if there is another accepting offset
+     */
+    @Override
+    public boolean hasNext() {
+        if (pending < 0) {
+            try {
+                pending = findNext();
+            } catch (IOException e) {
+                throw new IllegalStateException("Failed to map " +
+                        "the file being scanned", e);
+            }
+        }
+        return pending >= 0;
+    }
+
+    /**
+     * @return The: next offset at which the DFA is in an accept state, i.e.
+     *          the length of the next accepted prefix
+     */
+    public long nextOffset() {
+        if (!hasNext()) throw new NoSuchElementException();
+        long offset = pending;
+        pending = -1;
+        return offset;
+    }
+
+    /**
+     * Boxed version of nextOffset(), for use as an Iterator
+     */
+    @Override
+    public Long next() {
+        return nextOffset();
+    }
+
+    /**
+     * @return The: number of bytes read so far
+     */
+    public long position() {
+        return position;
+    }
+
+    /**
+     * Close the file. Mapped windows are released once they're garbage
+     * collected.
+     */
+    @Override
+    public void close() throws IOException {
+        window = null;
+        channel.close();
+    }
+
+    /*
+     * Helper method to read until the next accept state, returning the
+     * offset after the byte that reached it, or -1 at the end of the scan
+     */
+    private long findNext() throws IOException {
+        // The empty prefix is accepted if the start state is an accept state
+        if (!startChecked) {
+            startChecked = true;
+            if (dfa.isAccepting(state)) return 0;
+        }
+
+        while (position < size && state != CompiledDFA.DEAD) {
+            // Move the window along once we've read all of it
+            if (window == null || position >= windowStart + window.limit()) {
+                windowStart = position;
+                window = channel.map(FileChannel.MapMode.READ_ONLY,
+                        windowStart, Math.min(windowSize, size - position));
+            }
+
+            // Run through the rest of the window with local copies
+            int i = (int) (position - windowStart);
+            int limit = window.limit();
+            int current = state;
+            while (i < limit) {
+                current = dfa.step(current, (char) (window.get(i++) & 0xFF));
+                if (current == CompiledDFA.DEAD || dfa.isAccepting(current)) {
+                    break;
+                }
+            }
+            state = current;
+            position = windowStart + i;
+
+            if (dfa.isAccepting(state)) return position;
+        }
+
+        return -1;
+    }
+}
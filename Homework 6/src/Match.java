@@ -0,0 +1,48 @@
+/**
+ * A match found by searching a text: the characters in [start, end).
+ */
+public final class Match {
+
+    // The index of the first character of the match
+    public final int start;
+
+    // The index after the last character of the match
+    public final int end;
+
+    public Match(int start, int end) {
+        this.start = start;
+        this.end = end;
+    }
+
+    /**
+     * @return The: number of characters matched
+     */
+    public int length() {
+        return end - start;
+    }
+
+    /**
+     * @param text: The text that was searched
+     * @return The: matched characters
+     */
+    public CharSequence in(CharSequence text) {
+        return text.subSequence(start, end);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof Match)) return false;
+        Match m = (Match) o;
+        return start == m.start && end == m.end;
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * start + end;
+    }
+
+    @Override
+    public String toString() {
+        return "[" + start + ", " + end + ")";
+    }
+}
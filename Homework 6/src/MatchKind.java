@@ -0,0 +1,18 @@
+/**
+ * Which match to report when a search finds several that start at the same
+ * leftmost position (see Searcher).
+ *
+ * A plain DFA has no order among its patterns, so there's no
+ * "leftmost-first" in the sense of regex engines that prefer the earlier
+ * alternative; the choice is only between the shortest and the longest
+ * match.
+ */
+public enum MatchKind {
+
+    // The shortest match, i.e. the first accept state reached from the
+    // leftmost start
+    LEFTMOST_SHORTEST,
+
+    // The longest match from the leftmost start, as in POSIX
+    LEFTMOST_LONGEST
+}
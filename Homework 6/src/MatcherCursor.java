@@ -0,0 +1,74 @@
+/**
+ * A matcher that reads its input a piece at a time, so input arriving in
+ * chunks (network packets, file blocks, ...) can be checked as it comes in
+ * without joining the chunks into one String first.
+ *
+ * The cursor's position can be saved with snapshot() and gone back to with
+ * restore(..), for instance to try a chunk and undo it if it's rejected:
+ *     MatcherCursor.Snapshot saved = cursor.snapshot();
+ *     cursor.feed(chunk, 0, chunk.length());
+ *     if (cursor.isDead()) cursor.restore(saved);
+ * Snapshots are immutable, so one can be restored any number of times.
+ */
+public interface MatcherCursor {
+
+    /**
+     * Read one character.
+     * @param c: The input character
+     */
+    void feed(char c);
+
+    /**
+     * Read the characters str[from, to).
+     * @param str: The input
+     * @param from: The index of the first character to read
+     * @param to: The index after the last character to read
+     */
+    default void feed(CharSequence str, int from, int to) {
+        for (int i = from; i < to; i++) {
+            feed(str.charAt(i));
+        }
+    }
+
+    /**
+     * @return True: if everything read so far is accepted
+     */
+    boolean isAccepting();
+
+    /**
+     * @return True: if the automaton has no states left, so no input read
+     *          from now on can be accepted
+     */
+    boolean isDead();
+
+    /**
+     * @return The: number of characters read since the start (or the last
+     *          reset)
+     */
+    long consumed();
+
+    /**
+     * Go back to the start, as if nothing had been read.
+     */
+    void reset();
+
+    /**
+     * @return The: current position of the cursor, to be passed to
+     *          restore(..)
+     */
+    Snapshot snapshot();
+
+    /**
+     * Go back to a saved position.
+     * @param snapshot: A snapshot taken from this cursor
+     * @throws IllegalArgumentException if the snapshot came from a cursor
+     *          over a different automaton
+     */
+    void restore(Snapshot snapshot);
+
+    /**
+     * A saved position of a cursor.
+     */
+    interface Snapshot {
+    }
+}
@@ -0,0 +1,248 @@
+import java.util.*;
+
+/**
+ * Many automata merged into one DFA, so a single pass over a string tells
+ * which of them accept it.
+ *
+ * Each pattern is compiled on its own, then the patterns are run side by
+ * side as in the product construction (Theorem 1.25), generalized to N
+ * automata: a merged state is the tuple of the states the patterns are in,
+ *     G'((r_1, ..., r_N), a) = (G_1(r_1, a), ..., G_N(r_N, a)),
+ * over the union of the alphabets, where a letter outside of a pattern's
+ * alphabet sends that pattern to its dead state. Only the tuples reachable
+ * from (q_1, ..., q_N) are built, and the tuple with every pattern dead is
+ * the dead state of the merged DFA.
+ *
+ * Each merged state carries the (sorted) ids of the patterns that accept in
+ * it, stored back to back in one array. The number of reachable tuples can
+ * grow with the product of the pattern sizes, but for typical rule sets
+ * most patterns die after a few characters and it stays close to the sum.
+ */
+public final class MultiDFA {
+
+    // The transitions of the merged DFA, accepting where any pattern does
+    private final CompiledDFA table;
+
+    // The number of patterns merged
+    private final int patterns;
+
+    // The ids of the patterns accepting in state q are
+    //     acceptIds[acceptStart[q] .. acceptStart[q + 1])
+    private final int[] acceptStart;
+    private final int[] acceptIds;
+
+    private MultiDFA(CompiledDFA table, int patterns, int[] acceptStart,
+                     int[] acceptIds) {
+        this.table = table;
+        this.patterns = patterns;
+        this.acceptStart = acceptStart;
+        this.acceptIds = acceptIds;
+    }
+
+    /**
+     * Merge the given automata. Pattern i is the i-th automaton of the list.
+     * @param fsas: The automata to merge, DFAs or NFAs
+     * @return The: merged DFA
+     */
+    public static MultiDFA build(List<? extends FSA> fsas) {
+        CompiledDFA[] parts = new CompiledDFA[fsas.size()];
+        for (int i = 0; i < parts.length; i++) {
+            parts[i] = fsas.get(i).toCompiledDFA();
+        }
+        return merge(parts);
+    }
+
+    /**
+     * Merge the given regular expressions. Pattern i is the i-th expression
+     * of the list.
+     * @param regs: The expressions to merge
+     * @return The: merged DFA
+     */
+    public static MultiDFA fromRegExprs(List<RegExpr> regs) {
+        List<FSA> fsas = new ArrayList<>();
+        for (RegExpr reg : regs) {
+            FSA fsa = FSA.regex2Fsa(reg);
+            if (fsa == null) {
+                throw new IllegalArgumentException("Invalid regular " +
+                        "expression: " + reg);
+            }
+            fsas.add(fsa);
+        }
+        return build(fsas);
+    }
+
+    /*
+     * Helper method for the product construction over compiled patterns
+     */
+    private static MultiDFA merge(CompiledDFA[] parts) {
+        int n = parts.length;
+
+        // Take the union of the alphabets, and find each letter's symbol id
+        // in every pattern
+        StringBuilder letters = new StringBuilder();
+        Set<Character> seen = new HashSet<>();
+        for (CompiledDFA part : parts) {
+            for (int a = 0; a < part.alphabetSize(); a++) {
+                char c = part.symbolAt(a);
+                if (seen.add(c)) letters.append(c);
+            }
+        }
+        char[] symbols = letters.toString().toCharArray();
+        int k = symbols.length;
+        int[][] symbolIn = new int[n][k];
+        for (int i = 0; i < n; i++) {
+            for (int a = 0; a < k; a++) {
+                symbolIn[i][a] = parts[i].symbolOf(symbols[a]);
+            }
+        }
+
+        // Number the reachable tuples breadth first, from the start states
+        Map<Tuple, Integer> ids = new HashMap<>();
+        List<int[]> tuples = new ArrayList<>();
+        int[] start = new int[n];
+        for (int i = 0; i < n; i++) {
+            start[i] = parts[i].startState();
+        }
+        ids.put(new Tuple(start), 0);
+        tuples.add(start);
+        List<int[]> rows = new ArrayList<>();
+        for (int q = 0; q < tuples.size(); q++) {
+            int[] from = tuples.get(q);
+            int[] row = new int[k];
+            for (int a = 0; a < k; a++) {
+                int[] to = new int[n];
+                boolean live = false;
+                for (int i = 0; i < n; i++) {
+                    int s = symbolIn[i][a];
+                    to[i] = from[i] == CompiledDFA.DEAD || s < 0
+                            ? CompiledDFA.DEAD : parts[i].next(from[i], s);
+                    live |= to[i] != CompiledDFA.DEAD;
+                }
+                if (!live) {
+                    row[a] = CompiledDFA.DEAD;
+                    continue;
+                }
+                Tuple key = new Tuple(to);
+                Integer id = ids.get(key);
+                if (id == null) {
+                    id = tuples.size();
+                    ids.put(key, id);
+                    tuples.add(to);
+                }
+                row[a] = id;
+            }
+            rows.add(row);
+        }
+
+        // Collect the accepting patterns of each tuple
+        int states = tuples.size();
+        int[] acceptStart = new int[states + 1];
+        List<Integer> acceptList = new ArrayList<>();
+        boolean[] accepting = new boolean[states];
+        String[] names = new String[states];
+        for (int q = 0; q < states; q++) {
+            int[] tuple = tuples.get(q);
+            for (int i = 0; i < n; i++) {
+                if (parts[i].isAccepting(tuple[i])) acceptList.add(i);
+            }
+            acceptStart[q + 1] = acceptList.size();
+            accepting[q] = acceptStart[q + 1] > acceptStart[q];
+            names[q] = "q" + q;
+        }
+        int[] acceptIds = new int[acceptList.size()];
+        for (int j = 0; j < acceptIds.length; j++) {
+            acceptIds[j] = acceptList.get(j);
+        }
+
+        int[] table = new int[states * k];
+        for (int q = 0; q < states; q++) {
+            System.arraycopy(rows.get(q), 0, table, q * k, k);
+        }
+        return new MultiDFA(CompiledDFA.fromTable(n + " merged patterns",
+                names, symbols, table, accepting), n, acceptStart, acceptIds);
+    }
+
+    /**
+     * @return The: number of patterns merged
+     */
+    public int patternCount() {
+        return patterns;
+    }
+
+    /**
+     * @return The: number of states of the merged DFA
+     */
+    public int stateCount() {
+        return table.stateCount();
+    }
+
+    /**
+     * Run every pattern over the string at once.
+     * @param str: The input
+     * @return A: BitSet where bit i is set if pattern i accepts the input
+     */
+    public BitSet matching(CharSequence str) {
+        BitSet result = new BitSet(patterns);
+        int q = finalState(str);
+        if (q != CompiledDFA.DEAD) {
+            for (int j = acceptStart[q]; j < acceptStart[q + 1]; j++) {
+                result.set(acceptIds[j]);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @param str: The input
+     * @return True: if any of the patterns accepts the input
+     */
+    public boolean matchesAny(CharSequence str) {
+        return table.matches(str);
+    }
+
+    /*
+     * Helper method to find the merged state the input ends in
+     */
+    private int finalState(CharSequence str) {
+        int q = table.startState();
+        for (int i = 0, n = str.length(); i < n; i++) {
+            q = table.step(q, str.charAt(i));
+            // Every pattern is dead, so none of them can accept
+            if (q == CompiledDFA.DEAD) break;
+        }
+        return q;
+    }
+
+    /**
+     * Summarize the merged DFA
+     */
+    @Override
+    public String toString() {
+        return String.format("%d patterns merged into %d states",
+                patterns, table.stateCount());
+    }
+
+    /*
+     * A tuple of pattern states, usable as a HashMap key
+     */
+    private static final class Tuple {
+        private final int[] states;
+        private final int hash;
+
+        Tuple(int[] states) {
+            this.states = states;
+            this.hash = Arrays.hashCode(states);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Tuple && Arrays.equals(states,
+                    ((Tuple) o).states);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
@@ -1,6 +1,10 @@
 import javafx.util.Pair;
 
+import java.io.IOException;
+import java.io.Reader;
 import java.util.*;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
 
 /**
  * A class for building, storing, and running nondeterministic finite-state
@@ -12,11 +16,14 @@ public class NFA extends FSA {
     // Transitions are accessed through the helper method
     // delta(q: String, c: String) -> List<String>
     // setDelta(q: String, c: String, transition: List<String>)
-    protected HashMap<Pair<String, String>, List<String>> transitions;
+    // and keyed by the id of the state and the letter, packed into a long
+    // (see FSA.transitionKey(..)). The targets stay names, since a target
+    // can be named before its own line is read
+    protected LongObjectMap<List<String>> transitions;
 
     public NFA(String label) {
         super(label);
-        transitions = new HashMap<>();
+        transitions = new LongObjectMap<>();
     }
 
     /**
@@ -34,6 +41,7 @@ public class NFA extends FSA {
         Pair<Scanner, String> prepAdd = prepAddState(rawState);
         Scanner stateReader = prepAdd.getKey();
         String stateName = prepAdd.getValue();
+        stateName = addState(stateName);
 
         // Collect the transitions
         List<List<String>> trans = new ArrayList<>();
@@ -73,6 +81,145 @@ public class NFA extends FSA {
         return testPath(str, startingState);
     }
 
+    /**
+     * Run the NFA on everything that can be read from the given Reader (see
+     * FSA.runStream(..)).
+     *
+     * Rather than following each path separately, this keeps track of the
+     * set of states the NFA could be in, closed under epsilon transitions,
+     * so memory use is bounded by the number of states.
+     */
+    @Override
+    public RunResult runStream(Reader in) throws IOException {
+        StateSetRunner runner = new StateSetRunner();
+
+        char[] buffer = new char[BUFFER_SIZE];
+        long consumed = 0;
+        int read;
+        while ((read = in.read(buffer)) >= 0) {
+            for (int i = 0; i < read; i++) {
+                consumed++;
+                // No path is left, so the rest of the input doesn't matter
+                if (!runner.step(buffer[i])) {
+                    return new RunResult(false, consumed);
+                }
+            }
+        }
+
+        return new RunResult(runner.isAccepting(), consumed);
+    }
+
+    /**
+     * Start a cursor that tracks the set of states the NFA could be in (see
+     * NFACursor). The transitions are numbered each time, so to check many
+     * inputs, keep the cursor and reset() it instead.
+     */
+    @Override
+    public MatcherCursor cursor() {
+        // Number the alphabet, skipping epsilon (the states already have
+        // their ids in the state table)
+        List<String> letters = new ArrayList<>();
+        int maxSymbol = -1;
+        for (String a : alphabet) {
+            if (!a.equals(EPSILON) && !letters.contains(a)) {
+                letters.add(a);
+                maxSymbol = Math.max(maxSymbol, a.charAt(0));
+            }
+        }
+        int k = letters.size();
+        int[] symbolIds = new int[maxSymbol + 1];
+        Arrays.fill(symbolIds, -1);
+        for (int a = 0; a < k; a++) {
+            symbolIds[letters.get(a).charAt(0)] = a;
+        }
+
+        // Close every target set under epsilon transitions up front
+        BitSet[] steps = new BitSet[states.size() * k];
+        for (int q = 0; q < states.size(); q++) {
+            for (int a = 0; a < k; a++) {
+                List<String> targets = delta(states.name(q), letters.get(a));
+                if (targets != null && !targets.isEmpty()) {
+                    steps[q * k + a] = toBits(epsilonClosure(targets));
+                }
+            }
+        }
+
+        BitSet start = startingState == null ? new BitSet() : toBits(
+                epsilonClosure(Collections.singletonList(startingState)));
+        return new NFACursor(symbolIds, k, steps, start, acceptStates.ids());
+    }
+
+    /*
+     * Helper method to turn a set of states into a BitSet of their ids,
+     * skipping states that were never defined
+     */
+    private BitSet toBits(Collection<String> set) {
+        BitSet bits = new BitSet(states.size());
+        for (String q : set) {
+            int id = states.id(q);
+            if (id >= 0) bits.set(id);
+        }
+        return bits;
+    }
+
+    /**
+     * Give each task of a batch its own set-tracking runner.
+     */
+    @Override
+    protected Supplier<Predicate<CharSequence>> batchMatchers() {
+        return () -> {
+            StateSetRunner runner = new StateSetRunner();
+            return str -> {
+                runner.reset();
+                for (int i = 0; i < str.length(); i++) {
+                    if (!runner.step(str.charAt(i))) return false;
+                }
+                return runner.isAccepting();
+            };
+        };
+    }
+
+    /*
+     * Tracks the set of states the NFA could be in, closed under epsilon
+     * transitions, reusing the same scratch sets for every character
+     */
+    private final class StateSetRunner {
+        private Set<String> current = new HashSet<>();
+        private Set<String> next = new HashSet<>();
+        private final List<String> moved = new ArrayList<>();
+        private final Deque<String> toCheck = new ArrayDeque<>();
+
+        StateSetRunner() {
+            reset();
+        }
+
+        // Go back to E(q_0)
+        void reset() {
+            current.clear();
+            epsilonClosure(Collections.singletonList(startingState), current,
+                    toCheck);
+        }
+
+        // Read one character, returns false if no states are left
+        boolean step(char c) {
+            moved.clear();
+            for (String q : current) {
+                List<String> targets = delta(q, c);
+                if (targets != null) moved.addAll(targets);
+            }
+            next.clear();
+            epsilonClosure(moved, next, toCheck);
+            Set<String> swap = current;
+            current = next;
+            next = swap;
+            return !current.isEmpty();
+        }
+
+        boolean isAccepting() {
+            return !Collections.disjoint(current, acceptStates);
+        }
+    }
+
     /*
      * Helper method for processing nondeterministic paths
      */
@@ -153,7 +300,20 @@ public class NFA extends FSA {
      *             G(q: Q, a: S)
      */
     protected List<String> delta(String q, String a) {
-        return transitions.get(new Pair<>(q, a));
+        return delta(q, a.charAt(0));
+    }
+
+    /**
+     * The transition function for this NFA, for a letter given as a char (so
+     * runs don't have to make a String for every character).
+     * @param q: The state, a member of states.keySet()
+     * @param c: The input letter
+     * @return The: states determined by the transition function, or null if
+     *             there are none
+     */
+    protected List<String> delta(String q, char c) {
+        int id = states.id(q);
+        return id < 0 ? null : transitions.get(transitionKey(id, c));
     }
 
     /**
@@ -168,7 +328,7 @@ public class NFA extends FSA {
      * @param value: The desired transition list
      */
     protected void setDelta(String q, String a, List<String> value) {
-        transitions.put(new Pair<>(q, a), value);
+        transitions.put(transitionKey(states.intern(q), a.charAt(0)), value);
     }
 
     /*
@@ -202,13 +362,94 @@ public class NFA extends FSA {
      */
     public static DFA convertToDFA(FSA nfa) {
         if (nfa instanceof DFA) return (DFA) nfa;
+        NFA n = (NFA) nfa;
 
         DFA converted = new DFA(nfa.label);
 
+        // S' = S, without epsilon
+        for (String a : n.alphabet) {
+            if (!a.equals(EPSILON) && !converted.alphabet.contains(a)) {
+                converted.alphabet.add(a);
+            }
+        }
+
+        // Only the subsets reachable from E(q_0) are built, and each one is
+        // named q0, q1, q2, ... in the order it's discovered
+        Map<Set<String>, String> names = new HashMap<>();
+        List<Set<String>> subsets = new ArrayList<>();
+
+        // q_0' = E(q_0)
+        Set<String> start = n.epsilonClosure(
+                Collections.singletonList(n.startingState));
+        // (The names are distinct by construction, so addState's check for
+        // existing states can be skipped)
+        converted.states.intern("q0");
+        names.put(start, "q0");
+        subsets.add(start);
+        converted.startingState = "q0";
+
+        for (int i = 0; i < subsets.size(); i++) {
+            Set<String> r = subsets.get(i);
+            String rName = names.get(r);
+
+            // F' = { R: Q' | R shares an element with F }
+            if (!Collections.disjoint(r, n.acceptStates)) {
+                converted.acceptStates.add(rName);
+            }
+
+            // G'(R, a) = E(G(r, a) for every r: R)
+            for (String a : converted.alphabet) {
+                List<String> moved = new ArrayList<>();
+                for (String q : r) {
+                    List<String> next = n.delta(q, a);
+                    if (next != null) moved.addAll(next);
+                }
+                Set<String> target = n.epsilonClosure(moved);
+
+                String targetName = names.get(target);
+                if (targetName == null) {
+                    // Register the newly discovered subset
+                    targetName = "q" + subsets.size();
+                    converted.states.intern(targetName);
+                    names.put(target, targetName);
+                    subsets.add(target);
+                }
+                converted.setDelta(rName, a, targetName);
+            }
+        }
 
         return converted;
     }
 
+    /*
+     * Helper method to find E(R), the states reachable from the given states
+     * in 0 or more epsilon transitions
+     */
+    private Set<String> epsilonClosure(Collection<String> r) {
+        Set<String> closure = new HashSet<>();
+        epsilonClosure(r, closure, new ArrayDeque<>());
+        return closure;
+    }
+
+    /*
+     * Helper method to add E(R) to 'closure', using 'toCheck' (left empty)
+     * as the worklist
+     */
+    private void epsilonClosure(Collection<String> r, Set<String> closure,
+                                Deque<String> toCheck) {
+        for (String q : r) {
+            if (q != null && closure.add(q)) toCheck.push(q);
+        }
+
+        while (!toCheck.isEmpty()) {
+            List<String> next = delta(toCheck.pop(), EPSILON);
+            if (next == null) continue;
+            for (String q : next) {
+                if (closure.add(q)) toCheck.push(q);
+            }
+        }
+    }
+
     /**
      * Generate the union of the two provided NFA's as described in the proof for Theorem
      * 1.45.
@@ -249,8 +490,14 @@ public class NFA extends FSA {
         }
 
         // Q = { q_0 } U Q_1 U Q_2
-        n.states = setUnion(Collections.singletonList(q0), n1.states);
-        n.states = setUnion(n.states, n2.states);
+        // (The state table keeps each name once)
+        n.states.intern(q0);
+        for (String q : n1.states) {
+            n.states.intern(q);
+        }
+        for (String q : n2.states) {
+            n.states.intern(q);
+        }
 
         // S = S_1 U S_2
         n.alphabet = setUnion(n1.alphabet, n2.alphabet);
@@ -260,7 +507,8 @@ public class NFA extends FSA {
 
         n.startingState = q0;
         // F = F_1 U F_2
-        n.acceptStates = setUnion(n1.acceptStates, n2.acceptStates);
+        n.acceptStates.addAll(n1.acceptStates);
+        n.acceptStates.addAll(n2.acceptStates);
 
         /*
          * G(q: Q, a: S_e) -> {
@@ -320,7 +568,12 @@ public class NFA extends FSA {
         NFA n = new NFA(n1.label + " \u25cb " + n2.label);
 
         // Q = Q_1 U Q_2
-        n.states = setUnion(n1.states, n2.states);
+        for (String q : n1.states) {
+            n.states.intern(q);
+        }
+        for (String q : n2.states) {
+            n.states.intern(q);
+        }
 
         // S = S_1 U S_2
         n.alphabet = setUnion(n1.alphabet, n2.alphabet);
@@ -332,7 +585,6 @@ public class NFA extends FSA {
         n.startingState = n1.startingState;
 
         // F = F_2
-        n.acceptStates = new ArrayList<>();
         n.acceptStates.addAll(n2.acceptStates);
 
         /* G(q: Q, a: S_e) -> {
@@ -398,7 +650,10 @@ public class NFA extends FSA {
         }
 
         // Q' = { q_0 } U Q_1
-        newN.states = setUnion(Collections.singletonList(q0), n.states);
+        newN.states.intern(q0);
+        for (String q : n.states) {
+            newN.states.intern(q);
+        }
 
         // S' = S
         newN.alphabet.addAll(n.alphabet);
@@ -440,8 +695,8 @@ public class NFA extends FSA {
         newN.startingState = q0;
 
         // F' = { q_0 } U F
-        newN.acceptStates =
-                setUnion(Collections.singletonList(q0), n.acceptStates);
+        newN.acceptStates.add(q0);
+        newN.acceptStates.addAll(n.acceptStates);
 
         return newN;
     }
@@ -0,0 +1,117 @@
+import java.util.BitSet;
+
+/**
+ * A cursor over an NFA, keeping track of the set of states the NFA could be
+ * in (closed under epsilon transitions) as a BitSet of state ids.
+ *
+ * The transitions are numbered once when the cursor is made, with each
+ * target set already closed under epsilon transitions:
+ *     steps[q * k + a] = E(G(q, a)),
+ * so reading a character is just the union of steps[q * k + a] over the
+ * current states. A snapshot is a copy of the current set.
+ */
+final class NFACursor implements MatcherCursor {
+
+    // Maps a character to its symbol id, or -1 if it isn't in the alphabet
+    private final int[] symbolIds;
+
+    // The number of letters in the alphabet, not counting epsilon
+    private final int k;
+
+    // The epsilon-closed targets of each state and letter (null for none)
+    private final BitSet[] steps;
+
+    // E(q_0), and the accept states
+    private final BitSet start;
+    private final BitSet accept;
+
+    // The states the NFA could be in, and scratch space for the next ones
+    private BitSet current;
+    private BitSet next;
+
+    // The number of characters read
+    private long consumed;
+
+    NFACursor(int[] symbolIds, int k, BitSet[] steps, BitSet start,
+              BitSet accept) {
+        this.symbolIds = symbolIds;
+        this.k = k;
+        this.steps = steps;
+        this.start = start;
+        this.accept = accept;
+        current = (BitSet) start.clone();
+        next = new BitSet();
+    }
+
+    @Override
+    public void feed(char c) {
+        int a = c < symbolIds.length ? symbolIds[c] : -1;
+        next.clear();
+        if (a >= 0) {
+            for (int q = current.nextSetBit(0); q >= 0;
+                 q = current.nextSetBit(q + 1)) {
+                BitSet targets = steps[q * k + a];
+                if (targets != null) next.or(targets);
+            }
+        }
+        BitSet swap = current;
+        current = next;
+        next = swap;
+        consumed++;
+    }
+
+    @Override
+    public boolean isAccepting() {
+        return current.intersects(accept);
+    }
+
+    @Override
+    public boolean isDead() {
+        return current.isEmpty();
+    }
+
+    @Override
+    public long consumed() {
+        return consumed;
+    }
+
+    @Override
+    public void reset() {
+        current.clear();
+        current.or(start);
+        consumed = 0;
+    }
+
+    @Override
+    public Snapshot snapshot() {
+        return new Position(steps, (BitSet) current.clone(), consumed);
+    }
+
+    @Override
+    public void restore(Snapshot snapshot) {
+        if (!(snapshot instanceof Position)
+                || ((Position) snapshot).steps != steps) {
+            throw new IllegalArgumentException("The snapshot wasn't taken " +
+                    "from a cursor over this NFA");
+        }
+        current.clear();
+        current.or(((Position) snapshot).states);
+        consumed = ((Position) snapshot).consumed;
+    }
+
+    /*
+     * A saved state set of an NFA cursor. The transitions identify which
+     * NFA it belongs to
+     */
+    private static final class Position implements Snapshot {
+        private final BitSet[] steps;
+        private final BitSet states;
+        private final long consumed;
+
+        Position(BitSet[] steps, BitSet states, long consumed) {
+            this.steps = steps;
+            this.states = states;
+            this.consumed = consumed;
+        }
+    }
+}
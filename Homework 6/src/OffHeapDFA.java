@@ -0,0 +1,495 @@
+import java.io.Closeable;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+/**
+ * A compiled DFA whose transition table and accept flags live outside of
+ * the Java heap, for automata with tens of millions of states.
+ *
+ * The on-heap tables keep one array per automaton, which the garbage
+ * collector has to copy around and which can't grow past 2^31 entries.
+ * Here the table is split into pages of direct memory instead: the
+ * collector only ever sees the handful of page objects, however large the
+ * automaton is, and the number of entries is only limited by memory.
+ *     - transitions are stored as ints, target + 1, at entry
+ *       state * alphabetSize + symbol, so that fresh (zeroed) memory reads
+ *       as the dead state
+ *     - every state has one byte of flags: whether it accepts, and its kind
+ *       (see StateAnalysis)
+ * State names aren't kept (they would put a String per state back on the
+ * heap), so stateName(..) reports "q" followed by the id.
+ *
+ * The memory is held until close() is called, so an OffHeapDFA should be
+ * used like a stream:
+ *     try (OffHeapDFA big = OffHeapDFA.copyOf(dfa.compile())) {
+ *         big.matches(..);
+ *     }
+ * Using it after it's been closed throws an IllegalStateException. Closing
+ * it while another thread is still running it is not allowed, since that
+ * thread could read memory that has already been given back.
+ *
+ * Automata too large to build on the heap first can be written straight
+ * into off-heap memory, one state at a time, with a Builder.
+ */
+public final class OffHeapDFA extends CompiledDFA implements Closeable {
+
+    // The flag bit for accept states. The kind is kept in the bits above it
+    private static final int ACCEPT = 1;
+
+    // The number of states
+    private final int states;
+
+    // The transitions, as target + 1
+    private final Region transitions;
+
+    // The flags of every state
+    private final Region flags;
+
+    // Whether any state is absorbing, so runs need to check for them
+    private final boolean settles;
+
+    // Whether close() has been called
+    private boolean closed;
+
+    private OffHeapDFA(String label, char[] symbols, int states,
+                       Region transitions, Region flags, boolean settles) {
+        super(label, null, symbols, null, null);
+        this.states = states;
+        this.transitions = transitions;
+        this.flags = flags;
+        this.settles = settles;
+    }
+
+    /**
+     * Copy a compiled DFA into off-heap memory, keeping its state kinds.
+     * @param dfa: The matcher to copy, which can then be dropped
+     * @return An: equivalent matcher stored off the heap
+     */
+    public static OffHeapDFA copyOf(CompiledDFA dfa) {
+        int n = dfa.stateCount();
+        int k = dfa.alphabetSize();
+        char[] symbols = new char[k];
+        for (int a = 0; a < k; a++) {
+            symbols[a] = dfa.symbolAt(a);
+        }
+
+        Region transitions = new Region(2, (long) n * k);
+        Region flags = new Region(0, n);
+        boolean settles = false;
+        try {
+            for (int q = 0; q < n; q++) {
+                long row = (long) q * k;
+                for (int a = 0; a < k; a++) {
+                    transitions.putInt(row + a, dfa.next(q, a) + 1);
+                }
+                byte kind = dfa.isDeadEnd(q) ? StateAnalysis.DEAD_END
+                        : dfa.isAbsorbing(q) ? StateAnalysis.ABSORBING
+                        : StateAnalysis.LIVE;
+                flags.put(q, flagsOf(dfa.isAccepting(q), kind));
+                settles |= kind == StateAnalysis.ABSORBING;
+            }
+        } catch (RuntimeException | Error e) {
+            // Don't hold on to the memory if the copy didn't finish
+            transitions.free();
+            flags.free();
+            throw e;
+        }
+        return new OffHeapDFA(dfa.label, symbols, n, transitions, flags,
+                settles);
+    }
+
+    @Override
+    public int stateCount() {
+        return states;
+    }
+
+    @Override
+    public String stateName(int state) {
+        return "q" + state;
+    }
+
+    @Override
+    public boolean isAccepting(int state) {
+        return state != DEAD && (stateFlags(state) & ACCEPT) != 0;
+    }
+
+    @Override
+    public boolean isDeadEnd(int state) {
+        return state == DEAD
+                || stateFlags(state) >> 1 == StateAnalysis.DEAD_END;
+    }
+
+    @Override
+    public boolean isAbsorbing(int state) {
+        return state != DEAD
+                && stateFlags(state) >> 1 == StateAnalysis.ABSORBING;
+    }
+
+    @Override
+    public int next(int state, int symbol) {
+        checkOpen();
+        return transitions.getInt((long) state * symbols.length + symbol) - 1;
+    }
+
+    @Override
+    public boolean matches(CharSequence str) {
+        checkOpen();
+        final Region t = transitions;
+        final long k = symbols.length;
+        int state = 0;
+        for (int i = 0, n = str.length(); i < n; i++) {
+            int a = symbolOf(str.charAt(i));
+            // Leaving the alphabet or the live states means rejection
+            if (a < 0) return false;
+            state = t.getInt(state * k + a) - 1;
+            if (state < 0) return false;
+            // The rest only has to stay inside the alphabet
+            if (settles && isAbsorbing(state)) {
+                return restInAlphabet(str, i + 1);
+            }
+        }
+        return isAccepting(state);
+    }
+
+    /**
+     * @return The: number of bytes of off-heap memory held
+     */
+    public long offHeapBytes() {
+        return transitions.bytes() + flags.bytes();
+    }
+
+    /**
+     * Give the off-heap memory back. Closing twice does nothing.
+     */
+    @Override
+    public void close() {
+        if (closed) return;
+        closed = true;
+        transitions.free();
+        flags.free();
+    }
+
+    @Override
+    String width() {
+        return "off-heap int";
+    }
+
+    /*
+     * Helper method to read the flags of a live state
+     */
+    private int stateFlags(int state) {
+        checkOpen();
+        return flags.get(state);
+    }
+
+    /*
+     * Helper method to refuse any use after close()
+     */
+    private void checkOpen() {
+        if (closed) {
+            throw new IllegalStateException(label + " has been closed");
+        }
+    }
+
+    /*
+     * Helper method to pack the flags of a state into its byte
+     */
+    private static byte flagsOf(boolean accepting, byte kind) {
+        return (byte) ((accepting ? ACCEPT : 0) | kind << 1);
+    }
+
+    /**
+     * Writes a DFA straight into off-heap memory, for automata that are too
+     * large to build on the heap first (like the result of a subset or
+     * product construction over big automata). States are added one at a
+     * time and start out with every transition leading to the dead state;
+     * state 0 is the start state.
+     *
+     * Nothing is classified while building, since that needs the whole
+     * reversed table, so runs built this way only stop early at the dead
+     * state itself.
+     */
+    public static final class Builder {
+        private final String label;
+        private final char[] symbols;
+        private final Region transitions;
+        private final Region flags;
+        private int states;
+        private boolean built;
+
+        /**
+         * @param label: The label of the DFA
+         * @param symbols: The alphabet, indexed by symbol id
+         * @param expectedStates: About how many states will be added, used
+         *                      to size the pages of memory
+         */
+        public Builder(String label, char[] symbols, int expectedStates) {
+            this.label = label;
+            this.symbols = symbols.clone();
+            transitions = new Region(2,
+                    (long) Math.max(expectedStates, 1) * symbols.length);
+            flags = new Region(0, Math.max(expectedStates, 1));
+        }
+
+        /**
+         * Add a new state, with every transition leading to the dead state.
+         * @param accepting: Whether the state is an accept state
+         * @return The: id of the new state
+         */
+        public int addState(boolean accepting) {
+            checkBuilding();
+            int state = states++;
+            transitions.ensure((long) states * symbols.length);
+            flags.ensure(states);
+            flags.put(state, flagsOf(accepting, StateAnalysis.LIVE));
+            return state;
+        }
+
+        /**
+         * Set G(state, symbol) = target.
+         * @param state: A state id
+         * @param symbol: A symbol id
+         * @param target: The next state id, or DEAD
+         */
+        public void setNext(int state, int symbol, int target) {
+            checkBuilding();
+            if (state < 0 || state >= states || target < DEAD
+                    || target >= states) {
+                throw new IndexOutOfBoundsException("No transition from "
+                        + state + " to " + target);
+            }
+            transitions.putInt((long) state * symbols.length + symbol,
+                    target + 1);
+        }
+
+        /**
+         * @return The: number of states added so far
+         */
+        public int stateCount() {
+            return states;
+        }
+
+        /**
+         * Finish building. The memory now belongs to the returned DFA.
+         * @return The: DFA that was built
+         */
+        public OffHeapDFA build() {
+            checkBuilding();
+            built = true;
+            // Even an empty DFA has a (rejecting) start state
+            if (states == 0) {
+                states = 1;
+                transitions.ensure(symbols.length);
+                flags.ensure(1);
+            }
+            return new OffHeapDFA(label, symbols, states, transitions, flags,
+                    false);
+        }
+
+        /**
+         * Give the memory back without building, if building was abandoned.
+         */
+        public void discard() {
+            if (built) return;
+            built = true;
+            transitions.free();
+            flags.free();
+        }
+
+        /*
+         * Helper method to refuse any change once built
+         */
+        private void checkBuilding() {
+            if (built) {
+                throw new IllegalStateException("Already built");
+            }
+        }
+    }
+
+    /*
+     * A growable array of fixed-size elements in pages of direct memory.
+     * Every page has the same power of two size, so finding an element is
+     * a shift and a mask. The size is first picked from the expected number
+     * of elements, and doubled (merging the pages in pairs) whenever there
+     * would be more than MAX_PAGES, so a bad guess doesn't leave a huge
+     * table in millions of small pages
+     */
+    private static final class Region {
+        // The smallest and largest page, in bytes
+        private static final int MIN_PAGE_SHIFT = 12;
+        private static final int MAX_PAGE_SHIFT = 30;
+
+        // The most pages before they're merged into larger ones (only
+        // exceeded once the pages have reached the largest size)
+        private static final int MAX_PAGES = 64;
+
+        // The log of the element size, in bytes
+        private final int elementShift;
+        private int pageShift;
+        private long pageMask;
+
+        // The pages, of which the first 'count' are in use
+        private ByteBuffer[] pages = new ByteBuffer[0];
+        private int count;
+
+        Region(int elementShift, long expected) {
+            this.elementShift = elementShift;
+            long bytes = Math.max(expected, 1) << elementShift;
+            int shift = 64 - Long.numberOfLeadingZeros(bytes - 1);
+            pageShift = Math.max(MIN_PAGE_SHIFT,
+                    Math.min(MAX_PAGE_SHIFT, shift));
+            pageMask = (1L << pageShift) - 1;
+            ensure(expected);
+        }
+
+        /*
+         * Make room for the given number of elements
+         */
+        void ensure(long elements) {
+            long bytes = elements << elementShift;
+            if (pagesFor(bytes, pageShift) <= count) return;
+
+            // Grow the pages along with the table
+            int shift = pageShift;
+            while (shift < MAX_PAGE_SHIFT
+                    && pagesFor(bytes, shift) > MAX_PAGES) {
+                shift++;
+            }
+            if (shift > pageShift) merge(shift);
+
+            int needed = (int) pagesFor(bytes, pageShift);
+            if (needed > pages.length) {
+                pages = Arrays.copyOf(pages,
+                        Math.max(needed, 2 * pages.length));
+            }
+            for (; count < needed; count++) {
+                pages[count] = allocate(pageShift);
+            }
+        }
+
+        /*
+         * Helper method to copy the pages into fewer, larger ones, giving
+         * each old page back as soon as it's copied
+         */
+        private void merge(int shift) {
+            int factor = 1 << (shift - pageShift);
+            int merged = (count + factor - 1) / factor;
+            // * Page j is only written after the old pages j * factor and
+            //   up are read, so this can be done in place
+            for (int j = 0; j < merged; j++) {
+                ByteBuffer page = allocate(shift);
+                int end = Math.min(count, (j + 1) * factor);
+                for (int p = j * factor; p < end; p++) {
+                    ByteBuffer old = pages[p];
+                    old.clear();
+                    page.position((p - j * factor) << pageShift);
+                    page.put(old);
+                    Cleaner.free(old);
+                }
+                pages[j] = page;
+            }
+            Arrays.fill(pages, merged, count, null);
+            count = merged;
+            pageShift = shift;
+            pageMask = (1L << pageShift) - 1;
+        }
+
+        /*
+         * Helper method for the number of pages of the given size holding
+         * 'bytes'
+         */
+        private static long pagesFor(long bytes, int shift) {
+            return (bytes + (1L << shift) - 1) >>> shift;
+        }
+
+        /*
+         * Helper method for a fresh page, which direct memory zeroes
+         */
+        private static ByteBuffer allocate(int shift) {
+            return ByteBuffer.allocateDirect(1 << shift)
+                    .order(ByteOrder.nativeOrder());
+        }
+
+        int getInt(long i) {
+            long at = i << 2;
+            return pages[(int) (at >>> pageShift)]
+                    .getInt((int) (at & pageMask));
+        }
+
+        void putInt(long i, int value) {
+            long at = i << 2;
+            pages[(int) (at >>> pageShift)]
+                    .putInt((int) (at & pageMask), value);
+        }
+
+        byte get(long i) {
+            return pages[(int) (i >>> pageShift)].get((int) (i & pageMask));
+        }
+
+        void put(long i, byte value) {
+            pages[(int) (i >>> pageShift)].put((int) (i & pageMask), value);
+        }
+
+        long bytes() {
+            return (long) count << pageShift;
+        }
+
+        /*
+         * Give every page back, without waiting for the garbage collector
+         */
+        void free() {
+            for (int p = 0; p < count; p++) {
+                Cleaner.free(pages[p]);
+            }
+            pages = new ByteBuffer[0];
+            count = 0;
+        }
+    }
+
+    /*
+     * Frees direct buffers right away. There's no public API for it before
+     * the Foreign Memory API, so this finds the JDK's own hook: Unsafe's
+     * invokeCleaner(..) on Java 9 and later, or the buffer's cleaner() on
+     * Java 8. If neither can be reached, the memory is given back once the
+     * page objects are collected
+     */
+    private static final class Cleaner {
+        private static final Object UNSAFE;
+        private static final Method INVOKE_CLEANER;
+
+        static {
+            Object unsafe = null;
+            Method invokeCleaner = null;
+            try {
+                Class<?> type = Class.forName("sun.misc.Unsafe");
+                invokeCleaner = type.getMethod("invokeCleaner",
+                        ByteBuffer.class);
+                Field field = type.getDeclaredField("theUnsafe");
+                field.setAccessible(true);
+                unsafe = field.get(null);
+            } catch (ReflectiveOperationException | RuntimeException e) {
+                invokeCleaner = null;
+            }
+            UNSAFE = unsafe;
+            INVOKE_CLEANER = invokeCleaner;
+        }
+
+        static void free(ByteBuffer buffer) {
+            try {
+                if (INVOKE_CLEANER != null) {
+                    INVOKE_CLEANER.invoke(UNSAFE, buffer);
+                } else {
+                    Method cleaner = buffer.getClass().getMethod("cleaner");
+                    cleaner.setAccessible(true);
+                    Object c = cleaner.invoke(buffer);
+                    if (c != null) c.getClass().getMethod("clean").invoke(c);
+                }
+            } catch (ReflectiveOperationException | RuntimeException e) {
+                // Left for the garbage collector
+            }
+        }
+    }
+}
@@ -15,8 +15,31 @@ class PDA(val title: String,
           val acceptStates: Set<String>,
           val alphabet: Set<Char?>,
           val stackAlphabet: Set<Char?>,
-          val trans: Map<String, Map<Char?, Map<Char?,
+          trans: Map<String, Map<Char?, Map<Char?,
                   Set<Pair<String, Char?>>?>>>) {
+
+    // The states with transitions, and the index of each, for keying 'index'
+    private val stateList = ArrayList<String>()
+    private val stateIds = HashMap<String, Int>()
+    // The transition function, flattened into one map (see delta(..)). The
+    // nested maps it's read from aren't kept
+    private val index = LongObjectMap<Set<Pair<String, Char?>>>()
+
+    init {
+        for ((state, byInput) in trans) {
+            val id = stateIds.getOrPut(state) {
+                stateList.add(state)
+                stateList.size - 1
+            }
+            for ((inputChar, byStack) in byInput) {
+                for ((stackChar, destinations) in byStack) {
+                    if (destinations != null)
+                        index.put(key(id, inputChar, stackChar), destinations)
+                }
+            }
+        }
+    }
+
     /**
      * An accessor for the transition function. Returns a nullable Set of
      * Pairs of (state, stack-char?).
@@ -32,7 +55,7 @@ class PDA(val title: String,
      * to some set of pairs
      *      {(state_i, stack-char_i), ... } .
      *
-     * Our transition function is stored as a 3 dimensional Map from
+     * Our transition function is given as a 3 dimensional Map from
      *      (String, Char?, Char?)
      * to a nullable Set of Pairs
      *      {(String, Char?), ... }? ,
@@ -56,9 +79,29 @@ class PDA(val title: String,
      *          println("We move to state $state and push $stack to"
      *                      + "our stack")
      *      } .
+     *
+     * Walking three maps costs three lookups (and boxing both chars), so
+     * the function is kept flattened into one map instead, keyed by the
+     * state's index and both chars packed into a long, which 'delta(..)'
+     * reads and 'forEachTransition(..)' walks.
      */
     private fun delta(state: String, inputChar: Char?, stackChar: Char?)
-                = trans[state]?.get(inputChar)?.get(stackChar)
+            : Set<Pair<String, Char?>>? {
+        val id = stateIds[state] ?: return null
+        return index.get(key(id, inputChar, stackChar))
+    }
+
+    /**
+     * Helper function to call 'action' with every non-null transition, as
+     * (state, input-char, stack-char, destinations), in no particular order.
+     */
+    private fun forEachTransition(action: (String, Char?, Char?,
+                                           Set<Pair<String, Char?>>) -> Unit) {
+        index.forEach { key, destinations ->
+            action(stateList[(key ushr 34).toInt()], charAt(key, 17),
+                    charAt(key, 0), destinations)
+        }
+    }
 
     /**
      * Convert this PDA into an equivalent context-free grammar, as outlined
@@ -76,17 +119,9 @@ class PDA(val title: String,
         val newTrans = mutableMapOf<String, MutableMap<Char?, MutableMap<Char?,
                             MutableSet<Pair<String, Char?>>?>>>()
         // Make a mutable copy of the transition map
-        for (state in trans.keys) {
-            newTrans[state] = mutableMapOf()
-            for (a in trans[state]!!.keys) {
-                newTrans[state]!![a] = mutableMapOf()
-                for (s in trans[state]!![a]!!.keys) {
-                    val desired = trans[state]!![a]!![s]
-                    // Don't need to add a transition if the transition is null
-                    if (desired != null)
-                        newTrans[state]!![a]!![s]!!.toMutableSet()
-                }
-            }
+        forEachTransition { state, a, s, desired ->
+            for (pair in desired)
+                addTrans(newTrans, state, a, s, pair)
         }
         // Reduce the PDA so its only accept state is 'newAccept'
         for (accept in acceptStates) {
@@ -112,30 +147,25 @@ class PDA(val title: String,
                 Pair(newAccept, null))
         /* Set the automaton to either push or pop on every
          * transition */
-        for (state in newTrans.keys) {
-            for (a in trans[state]!!.keys) {
-                for (pop in trans[state]!![a]!!.keys) {
-                    val dest = trans[state]!![a]!![pop]
-                    if (dest != null) for ((next, push) in dest) {
-                        // Replace simultaneous pushes and pops
-                        if (pop != null && push != null) {
-                            val between = addNewState(newStates)
-                            addTrans(newTrans,
-                                    state, a, push,
-                                    Pair(between, null))
-                            addTrans(newTrans,
-                                    between, null, null,
-                                    Pair(next, pop))
-                        } else if (pop == null && push == null) {
-                            val between = addNewState(newStates)
-                            addTrans(newTrans,
-                                    state, a, null,
-                                    Pair(between, '$'))
-                            addTrans(newTrans,
-                                    between, null, '$',
-                                    Pair(next, null))
-                        }
-                    }
+        forEachTransition { state, a, pop, dest ->
+            for ((next, push) in dest) {
+                // Replace simultaneous pushes and pops
+                if (pop != null && push != null) {
+                    val between = addNewState(newStates)
+                    addTrans(newTrans,
+                            state, a, push,
+                            Pair(between, null))
+                    addTrans(newTrans,
+                            between, null, null,
+                            Pair(next, pop))
+                } else if (pop == null && push == null) {
+                    val between = addNewState(newStates)
+                    addTrans(newTrans,
+                            state, a, null,
+                            Pair(between, '$'))
+                    addTrans(newTrans,
+                            between, null, '$',
+                            Pair(next, null))
                 }
             }
         }
@@ -334,6 +364,27 @@ class PDA(val title: String,
     }
 
     companion object {
+        // Stands in for epsilon (a null char) in a transition key, since
+        // every real char fits in 16 bits
+        private const val EPSILON_CODE = 0x10000L
+
+        /*
+         * Helper function to pack a state index, an input char, and a stack
+         * char into the key of a transition, 17 bits per char
+         */
+        private fun key(state: Int, inputChar: Char?, stackChar: Char?): Long =
+                (state.toLong() shl 34) or
+                        ((inputChar?.code?.toLong() ?: EPSILON_CODE) shl 17) or
+                        (stackChar?.code?.toLong() ?: EPSILON_CODE)
+
+        /*
+         * Helper function to read a char back out of the 17 bits of a key
+         */
+        private fun charAt(key: Long, shift: Int): Char? {
+            val code = (key ushr shift) and 0x1FFFF
+            return if (code == EPSILON_CODE) null else code.toInt().toChar()
+        }
+
         /**
          * Simple Regex to match a line of the transition table. The
          * useful parts of the Regex are the groups, which hold the accept
@@ -0,0 +1,176 @@
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Runs a compiled DFA over one long input on several cores at once.
+ *
+ * The input is split into chunks, and each chunk is run from every state of
+ * the DFA at the same time, since we don't know which state the chunks
+ * before it will end in. That gives a mapping from "state before the chunk"
+ * to "state after the chunk" for each chunk. Because running two chunks one
+ * after the other is the same as composing their mappings,
+ *     (f then g)(q) = g(f(q)),
+ * the mappings can be computed in parallel and composed left to right at
+ * the end. The first chunk is only ever run from the start state.
+ *
+ * Running a chunk from every state costs up to n times the sequential work,
+ * but in practice the n paths fall into the same states after a few
+ * characters, and merged paths are only followed once. This works best for
+ * automata with a modest number of states.
+ */
+final class ParallelMatcher {
+
+    // Inputs shorter than this are run sequentially
+    static final int MIN_CHUNK = 1 << 14;
+
+    // How many characters are read between merging paths that met
+    private static final int MERGE_INTERVAL = 32;
+
+    private ParallelMatcher() {
+    }
+
+    /**
+     * Run the given matcher over the input, splitting it into chunks for
+     * the given pool.
+     * @param dfa: The compiled DFA
+     * @param str: The input
+     * @param pool: The pool to run chunks on
+     * @return True: if the input is accepted
+     */
+    static boolean matches(CompiledDFA dfa, CharSequence str,
+                           ForkJoinPool pool) {
+        int length = str.length();
+        int chunks = Math.min(pool.getParallelism() * 4, length / MIN_CHUNK);
+        // Speculating only pays off with more than one worker
+        if (chunks < 2 || pool.getParallelism() < 2) {
+            return dfa.matches(str);
+        }
+
+        // The first chunk only needs to be run from the start state, and it
+        // runs on this thread while the rest are mapped in the pool
+        int firstEnd = length / chunks;
+        MapTask rest = new MapTask(dfa, str, firstEnd, length,
+                (length - firstEnd) / (chunks - 1));
+        pool.execute(rest);
+        int state = dfa.startState();
+        for (int i = 0; i < firstEnd && state != CompiledDFA.DEAD; i++) {
+            state = dfa.step(state, str.charAt(i));
+        }
+        int[] mapping = rest.join();
+
+        state = state == CompiledDFA.DEAD ? CompiledDFA.DEAD : mapping[state];
+        return dfa.isAccepting(state);
+    }
+
+    /**
+     * Compose two state mappings: the result maps q to second(first(q)).
+     * DEAD stays DEAD.
+     */
+    static int[] compose(int[] first, int[] second) {
+        int[] composed = new int[first.length];
+        for (int q = 0; q < first.length; q++) {
+            composed[q] = first[q] == CompiledDFA.DEAD ? CompiledDFA.DEAD
+                    : second[first[q]];
+        }
+        return composed;
+    }
+
+    /**
+     * Run str[from, to) from every state of the DFA at once.
+     * @return The: mapping from each state to the state it ends in
+     */
+    static int[] mapChunk(CompiledDFA dfa, CharSequence str, int from,
+                          int to) {
+        int n = dfa.stateCount();
+
+        // 'current' holds the distinct paths still being followed, and
+        // 'path[q]' is the index of the path started from state q
+        int[] current = new int[n];
+        int[] path = new int[n];
+        for (int q = 0; q < n; q++) {
+            current[q] = q;
+            path[q] = q;
+        }
+        int paths = n;
+
+        // Scratch space for merging paths: slot[s + 1] is the new index of
+        // the path in state s (the + 1 makes room for DEAD)
+        int[] slot = new int[n + 1];
+        int[] moved = new int[n];
+
+        for (int i = from; i < to; i++) {
+            int a = dfa.symbolOf(str.charAt(i));
+            for (int j = 0; j < paths; j++) {
+                int s = current[j];
+                current[j] = s == CompiledDFA.DEAD || a < 0
+                        ? CompiledDFA.DEAD : dfa.next(s, a);
+            }
+
+            // Every so often, merge the paths that are in the same state
+            if (paths > 1 && ((i - from) % MERGE_INTERVAL == 0
+                    || i == to - 1)) {
+                Arrays.fill(slot, -1);
+                int merged = 0;
+                for (int j = 0; j < paths; j++) {
+                    int s = current[j];
+                    if (slot[s + 1] < 0) {
+                        slot[s + 1] = merged;
+                        current[merged++] = s;
+                    }
+                    moved[j] = slot[s + 1];
+                }
+                if (merged < paths) {
+                    for (int q = 0; q < n; q++) {
+                        path[q] = moved[path[q]];
+                    }
+                    paths = merged;
+                }
+            }
+        }
+
+        int[] mapping = new int[n];
+        for (int q = 0; q < n; q++) {
+            mapping[q] = current[path[q]];
+        }
+        return mapping;
+    }
+
+    /*
+     * Maps a range of the input by splitting it in half until it is one
+     * chunk long, then composing the halves
+     */
+    private static final class MapTask extends RecursiveTask<int[]> {
+        private static final long serialVersionUID = 1L;
+
+        private final CompiledDFA dfa;
+        private final CharSequence str;
+        private final int from;
+        private final int to;
+        private final int chunk;
+
+        MapTask(CompiledDFA dfa, CharSequence str, int from, int to,
+                int chunk) {
+            this.dfa = dfa;
+            this.str = str;
+            this.from = from;
+            this.to = to;
+            this.chunk = chunk;
+        }
+
+        @Override
+        protected int[] compute() {
+            if (to - from <= chunk + chunk / 2) {
+                return mapChunk(dfa, str, from, to);
+            }
+
+            // Split on a chunk boundary, and compose left to right
+            int middle = from + Math.max(1, (to - from) / chunk / 2) * chunk;
+            MapTask left = new MapTask(dfa, str, from, middle, chunk);
+            MapTask right = new MapTask(dfa, str, middle, to, chunk);
+            right.fork();
+            int[] first = left.compute();
+            return compose(first, right.join());
+        }
+    }
+}
@@ -278,7 +278,7 @@ class RegExpr(val exp: Char?,
             if (gnfa.states.size == 2) {
                 // Return the transition or a null RegExpr if the transition
                 // is null
-                return gnfa.transitions[Pair(gnfa.startState, gnfa.acceptState)]
+                return gnfa.transition(gnfa.startState, gnfa.acceptState)
                     ?: RegExpr(null, null, Operator.NULL)
             }
 
@@ -302,13 +302,13 @@ class RegExpr(val exp: Char?,
                         if (qJ != gnfa.startState) {
                             // Get the partial transitions, marking them as
                             // a null expression if the transition is null
-                            val r1 = gnfa.transitions.get(Pair(qI, qRip))
+                            val r1 = gnfa.transition(qI, qRip)
                                         ?: nullExpr()
-                            val r2 = gnfa.transitions.get(Pair(qRip, qRip))
+                            val r2 = gnfa.transition(qRip, qRip)
                                         ?: nullExpr()
-                            val r3 = gnfa.transitions.get(Pair(qRip, qJ))
+                            val r3 = gnfa.transition(qRip, qJ)
                                         ?: nullExpr()
-                            val r4 = gnfa.transitions.get(Pair(qI, qJ))
+                            val r4 = gnfa.transition(qI, qJ)
                                         ?: nullExpr()
 
                             val regStar = RegExpr(null,
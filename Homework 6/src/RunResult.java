@@ -0,0 +1,31 @@
+/**
+ * The outcome of running an automaton over a stream of input: whether the
+ * input was accepted, and how many symbols were read before deciding.
+ *
+ * Streaming runs stop reading as soon as the outcome can't change anymore
+ * (for instance after falling into the dead state), so 'consumed' may be
+ * smaller than the length of the input.
+ */
+public final class RunResult {
+
+    // Whether the automaton accepted the input
+    public final boolean accepted;
+
+    // The number of symbols read before the result was decided
+    public final long consumed;
+
+    public RunResult(boolean accepted, long consumed) {
+        this.accepted = accepted;
+        this.consumed = consumed;
+    }
+
+    /**
+     * Format the result as in Lexaard's 'run', followed by the number of
+     * symbols read
+     */
+    @Override
+    public String toString() {
+        return String.format("%s (%d symbols read)",
+                accepted ? "accept" : "reject", consumed);
+    }
+}
@@ -0,0 +1,515 @@
+import java.util.*;
+import java.util.function.BiPredicate;
+
+/**
+ * A class for building, storing, and running symbolic finite-state automata.
+ *
+ * Instead of one transition per letter of a finite alphabet, each transition
+ * of a symbolic automaton is labeled with a CharClass, a sorted set of
+ * code-point intervals. The alphabet is implicitly all of Unicode, so an
+ * automaton over arbitrary text only needs as many transitions as it has
+ * distinct character classes.
+ *
+ * States are numbered 0, 1, 2, ... and named q0, q1, q2, ... when printed.
+ * A transition labeled with null is an epsilon transition.
+ */
+public class SFA {
+
+    /**
+     * A single transition, leading to 'target' on any code point in 'on'
+     * (or on epsilon if 'on' is null).
+     */
+    public static final class Move {
+        public final CharClass on;
+        public final int target;
+
+        Move(CharClass on, int target) {
+            this.on = on;
+            this.target = target;
+        }
+    }
+
+    // The label for the SFA
+    protected String label;
+
+    // The start state
+    protected int start;
+
+    // The outgoing transitions, indexed by state
+    protected List<List<Move>> moves;
+
+    // The set of accept states
+    protected BitSet acceptStates;
+
+    // Whether the SFA is deterministic, or null if that isn't known since
+    // the last transition was added (see isDeterministic())
+    private Boolean deterministic = true;
+
+    /**
+     * Create a new SFA with the given label and no states.
+     * @param label: A descriptive identifier for the automaton
+     */
+    public SFA(String label) {
+        this.label = label;
+        moves = new ArrayList<>();
+        acceptStates = new BitSet();
+    }
+
+    /**
+     * Add a new state to the SFA.
+     * @param accepting: Whether the new state is an accept state
+     * @return The: id of the new state
+     */
+    public int addState(boolean accepting) {
+        moves.add(new ArrayList<>());
+        int q = moves.size() - 1;
+        acceptStates.set(q, accepting);
+        return q;
+    }
+
+    /**
+     * Add a transition from 'from' to 'to' on every code point in 'on'.
+     * Empty classes are ignored, since they can never be taken.
+     */
+    public void addMove(int from, CharClass on, int to) {
+        if (!on.isEmpty()) {
+            moves.get(from).add(new Move(on, to));
+            deterministic = null;
+        }
+    }
+
+    /**
+     * Add an epsilon transition from 'from' to 'to'.
+     */
+    public void addEpsilon(int from, int to) {
+        moves.get(from).add(new Move(null, to));
+        deterministic = false;
+    }
+
+    /**
+     * @return The: number of states in the SFA
+     */
+    public int stateCount() {
+        return moves.size();
+    }
+
+    /**
+     * @return The: start state of the SFA
+     */
+    public int startState() {
+        return start;
+    }
+
+    /**
+     * @return The: transitions leaving the given state
+     */
+    public List<Move> movesFrom(int q) {
+        return Collections.unmodifiableList(moves.get(q));
+    }
+
+    /**
+     * @return True: if the given state is an accept state
+     */
+    public boolean isAccepting(int q) {
+        return acceptStates.get(q);
+    }
+
+    /**
+     * Check if the SFA is deterministic, meaning it has no epsilon
+     * transitions and the labels leaving each state are pairwise disjoint.
+     *
+     * (Missing transitions are allowed, they lead to an implicit dead state)
+     *
+     * The answer is kept until the next transition is added, so only the
+     * first call after building the SFA looks at its transitions.
+     */
+    public boolean isDeterministic() {
+        if (deterministic == null) deterministic = checkDeterministic();
+        return deterministic;
+    }
+
+    /*
+     * Helper method to check every state for epsilon transitions and
+     * overlapping labels
+     */
+    private boolean checkDeterministic() {
+        for (List<Move> out : moves) {
+            CharClass seen = CharClass.EMPTY;
+            for (Move m : out) {
+                if (m.on == null || !seen.intersect(m.on).isEmpty()) {
+                    return false;
+                }
+                seen = seen.union(m.on);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Convert a DFA or NFA over a finite alphabet into an equivalent SFA,
+     * merging the letters that lead from a state to the same target into a
+     * single character class.
+     * @param fsa: The FSA to be converted
+     * @return An: equivalent SFA, deterministic if the FSA was a DFA
+     */
+    public static SFA from(FSA fsa) {
+        SFA converted = new SFA(fsa.label);
+
+        // Number the states, making sure the start state is included
+        Map<String, Integer> ids = new HashMap<>();
+        List<String> names = new ArrayList<>(fsa.states.names());
+        if (fsa.startingState != null && !names.contains(fsa.startingState)) {
+            names.add(0, fsa.startingState);
+        }
+        for (String q : names) {
+            ids.put(q, converted.addState(fsa.acceptStates.contains(q)));
+        }
+        if (names.isEmpty()) {
+            // An FSA without states accepts nothing
+            converted.start = converted.addState(false);
+            return converted;
+        }
+        converted.start = ids.get(fsa.startingState == null ? names.get(0)
+                : fsa.startingState);
+
+        // * Loop by index, since states that only appear as targets are
+        //   appended while we go
+        for (int i = 0; i < names.size(); i++) {
+            String q = names.get(i);
+            // Collect the letters leading to each target
+            Map<Integer, CharClass> byTarget = new LinkedHashMap<>();
+            for (String a : fsa.alphabet) {
+                for (String target : targets(fsa, q, a)) {
+                    // Register states that only appear as targets
+                    Integer t = ids.get(target);
+                    if (t == null) {
+                        t = converted.addState(
+                                fsa.acceptStates.contains(target));
+                        ids.put(target, t);
+                        names.add(target);
+                    }
+                    if (a.equals(FSA.EPSILON)) {
+                        converted.addEpsilon(ids.get(q), t);
+                    } else {
+                        CharClass c = CharClass.of(a.codePointAt(0));
+                        byTarget.merge(t, c, CharClass::union);
+                    }
+                }
+            }
+            for (Map.Entry<Integer, CharClass> e : byTarget.entrySet()) {
+                converted.addMove(ids.get(q), e.getValue(), e.getKey());
+            }
+        }
+
+        return converted;
+    }
+
+    /*
+     * Helper method to read either kind of transition function as a list
+     */
+    private static List<String> targets(FSA fsa, String q, String a) {
+        if (fsa instanceof DFA) {
+            String next = ((DFA) fsa).delta(q, a);
+            return next == null ? Collections.emptyList()
+                    : Collections.singletonList(next);
+        }
+        List<String> next = ((NFA) fsa).delta(q, a);
+        return next == null ? Collections.emptyList() : next;
+    }
+
+    /**
+     * Find every state reachable from the given states through zero or more
+     * epsilon transitions.
+     * @param set: The starting states, which will be extended in place
+     * @return The: same set, now closed under epsilon transitions
+     */
+    public BitSet epsilonClosure(BitSet set) {
+        Deque<Integer> toCheck = new ArrayDeque<>();
+        for (int q = set.nextSetBit(0); q >= 0; q = set.nextSetBit(q + 1)) {
+            toCheck.push(q);
+        }
+        while (!toCheck.isEmpty()) {
+            for (Move m : moves.get(toCheck.pop())) {
+                if (m.on == null && !set.get(m.target)) {
+                    set.set(m.target);
+                    toCheck.push(m.target);
+                }
+            }
+        }
+        return set;
+    }
+
+    /**
+     * Produce an equivalent deterministic SFA by the subset construction, as
+     * described in the proof for Theorem 1.39.
+     *
+     * The only change from the finite-alphabet construction is that the
+     * letters are replaced by the "minterms" of the labels leaving each
+     * subset: the code points are cut at every interval boundary, and the
+     * pieces with the same set of targets are grouped into one class. This
+     * way the number of transitions depends on the labels, not the size of
+     * Unicode.
+     * @return An: equivalent deterministic SFA with only reachable states
+     */
+    public SFA determinize() {
+        SFA d = new SFA(label);
+
+        // Number the subsets as they're discovered
+        Map<BitSet, Integer> ids = new HashMap<>();
+        List<BitSet> subsets = new ArrayList<>();
+
+        BitSet first = new BitSet();
+        first.set(start);
+        epsilonClosure(first);
+        ids.put(first, d.addState(first.intersects(acceptStates)));
+        subsets.add(first);
+        d.start = 0;
+
+        for (int i = 0; i < subsets.size(); i++) {
+            BitSet current = subsets.get(i);
+
+            // Gather the labeled transitions leaving the subset
+            List<Move> out = new ArrayList<>();
+            for (int q = current.nextSetBit(0); q >= 0;
+                 q = current.nextSetBit(q + 1)) {
+                for (Move m : moves.get(q)) {
+                    if (m.on != null) out.add(m);
+                }
+            }
+
+            // Cut the code points at every interval boundary
+            TreeSet<Integer> cuts = new TreeSet<>();
+            for (Move m : out) {
+                for (int j = 0; j < m.on.intervalCount(); j++) {
+                    cuts.add(m.on.lo(j));
+                    cuts.add(m.on.hi(j) + 1);
+                }
+            }
+
+            // Group the pieces by the subset they lead to
+            Map<BitSet, CharClass> byTarget = new LinkedHashMap<>();
+            Integer lo = null;
+            for (int cut : cuts) {
+                if (lo != null) {
+                    BitSet target = new BitSet();
+                    for (Move m : out) {
+                        if (m.on.contains(lo)) target.set(m.target);
+                    }
+                    if (!target.isEmpty()) {
+                        byTarget.merge(epsilonClosure(target),
+                                CharClass.range(lo, cut - 1),
+                                CharClass::union);
+                    }
+                }
+                lo = cut;
+            }
+
+            for (Map.Entry<BitSet, CharClass> e : byTarget.entrySet()) {
+                Integer t = ids.get(e.getKey());
+                if (t == null) {
+                    // Register the newly discovered subset
+                    t = d.addState(e.getKey().intersects(acceptStates));
+                    ids.put(e.getKey(), t);
+                    subsets.add(e.getKey());
+                }
+                d.addMove(i, e.getValue(), t);
+            }
+        }
+
+        // The ranges leaving each subset are disjoint, so there's no need
+        // to check
+        d.deterministic = true;
+        return d;
+    }
+
+    /**
+     * Generate the product of two SFAs, as described in the proof for
+     * Theorem 1.25, with the accept states decided by the given combiner.
+     *
+     * For instance (x, y) -> x || y gives the union, and (x, y) -> x && y
+     * gives the intersection. Both automata are determinized first if
+     * necessary, and the product only contains the pairs reachable from the
+     * start pair. Missing transitions are paired with an implicit dead state
+     * (numbered -1), so combiners that accept when one side has died still
+     * work.
+     * @param s1: The first SFA
+     * @param s2: The second SFA
+     * @param combiner: Decides if a pair accepts, given whether each side
+     *                accepts
+     * @return A: deterministic SFA for the combined language
+     */
+    public static SFA product(SFA s1, SFA s2,
+                              BiPredicate<Boolean, Boolean> combiner) {
+        SFA d1 = s1.isDeterministic() ? s1 : s1.determinize();
+        SFA d2 = s2.isDeterministic() ? s2 : s2.determinize();
+        SFA p = new SFA(s1.label + " x " + s2.label);
+
+        // Pair states are packed into a long, with -1 for the dead state
+        LongIntMap ids = new LongIntMap();
+        List<long[]> pairs = new ArrayList<>();
+
+        p.start = p.addState(combiner.test(d1.isAccepting(d1.start),
+                d2.isAccepting(d2.start)));
+        ids.put(pack(d1.start, d2.start), p.start);
+        pairs.add(new long[] { d1.start, d2.start });
+
+        for (int i = 0; i < pairs.size(); i++) {
+            int r1 = (int) pairs.get(i)[0];
+            int r2 = (int) pairs.get(i)[1];
+            List<Move> out1 = completed(d1, r1);
+            List<Move> out2 = completed(d2, r2);
+
+            for (Move m1 : out1) {
+                for (Move m2 : out2) {
+                    CharClass both = m1.on.intersect(m2.on);
+                    // Both sides dead is only worth keeping if it accepts
+                    if (both.isEmpty() || (m1.target < 0 && m2.target < 0
+                            && !combiner.test(false, false))) {
+                        continue;
+                    }
+                    long key = pack(m1.target, m2.target);
+                    int t = ids.get(key, -1);
+                    if (t < 0) {
+                        // Register the newly discovered pair
+                        t = p.addState(combiner.test(
+                                m1.target >= 0 && d1.isAccepting(m1.target),
+                                m2.target >= 0 && d2.isAccepting(m2.target)));
+                        ids.put(key, t);
+                        pairs.add(new long[] { m1.target, m2.target });
+                    }
+                    p.addMove(i, both, t);
+                }
+            }
+        }
+
+        // The labels leaving each pair are intersections of disjoint
+        // labels, so there's no need to check
+        p.deterministic = true;
+        return p;
+    }
+
+    /*
+     * Helper method to get the transitions of a deterministic SFA from the
+     * given state (or the dead state -1), with the missing code points sent
+     * to the dead state
+     */
+    private static List<Move> completed(SFA d, int q) {
+        List<Move> out = new ArrayList<>();
+        CharClass covered = CharClass.EMPTY;
+        if (q >= 0) {
+            for (Move m : d.moves.get(q)) {
+                out.add(m);
+                covered = covered.union(m.on);
+            }
+        }
+        CharClass rest = covered.complement();
+        if (!rest.isEmpty()) {
+            out.add(new Move(rest, -1));
+        }
+        return out;
+    }
+
+    /*
+     * Helper method to pack a pair of states into one key
+     */
+    private static long pack(int a, int b) {
+        return ((long) a << 32) | (b & 0xFFFFFFFFL);
+    }
+
+    /**
+     * Run the SFA on the code points of the given string.
+     *
+     * Deterministic automata follow a single path (which is only checked
+     * once, see isDeterministic()); otherwise the set of current states is
+     * tracked, including epsilon transitions, in two sets that are swapped
+     * at every code point.
+     * @param str: Any string
+     * @return True: if the SFA reaches an accept state after reading the
+     *          whole string, false otherwise
+     */
+    public boolean runString(CharSequence str) {
+        if (moves.isEmpty()) return false;
+        if (isDeterministic()) return runSinglePath(str);
+
+        BitSet current = new BitSet();
+        BitSet next = new BitSet();
+        current.set(start);
+        epsilonClosure(current);
+
+        for (int i = 0; i < str.length() && !current.isEmpty(); ) {
+            int cp = Character.codePointAt(str, i);
+            i += Character.charCount(cp);
+
+            next.clear();
+            for (int q = current.nextSetBit(0); q >= 0;
+                 q = current.nextSetBit(q + 1)) {
+                for (Move m : moves.get(q)) {
+                    if (m.on != null && m.on.contains(cp)) {
+                        next.set(m.target);
+                    }
+                }
+            }
+            epsilonClosure(next);
+            BitSet swap = current;
+            current = next;
+            next = swap;
+        }
+
+        return current.intersects(acceptStates);
+    }
+
+    /*
+     * Helper method to run a deterministic SFA, where at most one move of
+     * each state matches a code point and there are no epsilon moves
+     */
+    private boolean runSinglePath(CharSequence str) {
+        int q = start;
+        for (int i = 0; i < str.length(); ) {
+            int cp = Character.codePointAt(str, i);
+            i += Character.charCount(cp);
+
+            int next = -1;
+            for (Move m : moves.get(q)) {
+                if (m.on.contains(cp)) {
+                    next = m.target;
+                    break;
+                }
+            }
+            if (next < 0) return false;
+            q = next;
+        }
+        return isAccepting(q);
+    }
+
+    /**
+     * Format the SFA as a list of states, each followed by its transitions,
+     * e.g.
+     *     label
+     *     >q0  [a-z] q1  [0-9] q0
+     *     *q1  .. q0
+     * where '>' marks the start state, '*' marks accept states and '..'
+     * marks epsilon transitions.
+     */
+    @Override
+    public String toString() {
+        StringBuilder output = new StringBuilder();
+        output.append(label);
+        output.append("\n");
+
+        for (int q = 0; q < moves.size(); q++) {
+            output.append(q == start ? ">" : " ");
+            output.append(isAccepting(q) ? "*" : " ");
+            output.append("q");
+            output.append(q);
+            for (Move m : moves.get(q)) {
+                output.append("  ");
+                output.append(m.on == null ? ".." : m.on.toString());
+                output.append(" q");
+                output.append(m.target);
+            }
+            output.append("\n");
+        }
+
+        return output.toString();
+    }
+}
@@ -0,0 +1,177 @@
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Finds the substrings of a text that a compiled DFA accepts, from left to
+ * right without overlapping.
+ *
+ * Rather than running the DFA from every start offset, each search makes a
+ * single forward pass, as if the DFA were preceded by a loop reading any
+ * letter (the language S* L): at every position a new thread is started in
+ * the start state, tagged with the position it started at. Since the DFA is
+ * deterministic, threads that reach the same state behave the same from
+ * then on, so only the one that started leftmost is kept. That leaves at
+ * most one thread per state, and each character costs at most one step per
+ * state.
+ *
+ * Once a thread reaches an accept state, the match starting leftmost is
+ * known up to threads that started even further left, so no new threads
+ * are started and the threads that started later are dropped. The search
+ * ends when no thread is left:
+ *     LEFTMOST_SHORTEST  keeps the first end reached from the leftmost start
+ *     LEFTMOST_LONGEST   keeps following it for a longer match
+ *
+ * The next search starts at the end of the match (or one character later
+ * after an empty match, so the search always moves on).
+ */
+final class Searcher implements Iterator<Match> {
+
+    // The matcher being run
+    private final CompiledDFA dfa;
+
+    // The text being searched
+    private final CharSequence text;
+
+    // Which match to report from the leftmost start
+    private final MatchKind kind;
+
+    // The start of the thread in each state, or -1 if there is none, and the
+    // list of states that have a thread (for the current and next position)
+    private int[] start;
+    private int[] nextStart;
+    private int[] active;
+    private int[] nextActive;
+
+    // Where the next search starts, past the end of the text once done
+    private int position;
+
+    // The next match, if it's been searched for already
+    private Match pending;
+
+    Searcher(CompiledDFA dfa, CharSequence text, int from, MatchKind kind) {
+        this.dfa = dfa;
+        this.text = text;
+        this.kind = kind;
+        int n = dfa.stateCount();
+        start = new int[n];
+        nextStart = new int[n];
+        Arrays.fill(start, -1);
+        Arrays.fill(nextStart, -1);
+        active = new int[n];
+        nextActive = new int[n];
+        position = from;
+    }
+
+    /**
+     * @return True: if there is another match
+     */
+    @Override
+    public boolean hasNext() {
+        if (pending == null && position <= text.length()) {
+            pending = find(position);
+            if (pending == null) {
+                position = text.length() + 1;
+            } else {
+                position = pending.end == pending.start ? pending.end + 1
+                        : pending.end;
+            }
+        }
+        return pending != null;
+    }
+
+    /**
+     * @return The: next match, which starts at or after the end of the last
+     */
+    @Override
+    public Match next() {
+        if (!hasNext()) throw new NoSuchElementException();
+        Match m = pending;
+        pending = null;
+        return m;
+    }
+
+    /**
+     * Search for the leftmost match starting at or after 'from'.
+     * @return The: match, or null if there is none
+     */
+    Match find(int from) {
+        int length = text.length();
+        int count = 0;
+        int bestStart = -1;
+        int bestEnd = -1;
+
+        for (int i = from; ; i++) {
+            // Start a new thread here, unless a match was found (any match
+            // starting here would be further right). A thread already in the
+            // start state started earlier, so it wins
+            if (bestStart < 0 && start[0] < 0) {
+                start[0] = i;
+                active[count++] = 0;
+            }
+
+            // Check for matches ending here
+            for (int j = 0; j < count; j++) {
+                int q = active[j];
+                if (!dfa.isAccepting(q)) continue;
+                int s = start[q];
+                if (bestStart < 0 || s < bestStart
+                        || (s == bestStart
+                        && kind == MatchKind.LEFTMOST_LONGEST)) {
+                    bestStart = s;
+                    bestEnd = i;
+                }
+            }
+
+            // Drop the threads that can't do better than the best match
+            if (bestStart >= 0) {
+                int kept = 0;
+                for (int j = 0; j < count; j++) {
+                    int q = active[j];
+                    int s = start[q];
+                    if (s < bestStart || (s == bestStart
+                            && kind == MatchKind.LEFTMOST_LONGEST)) {
+                        active[kept++] = q;
+                    } else {
+                        start[q] = -1;
+                    }
+                }
+                count = kept;
+                if (count == 0) break;
+            }
+            if (i == length) break;
+
+            // Step every thread, keeping the leftmost start in each state
+            int a = dfa.symbolOf(text.charAt(i));
+            int moved = 0;
+            for (int j = 0; j < count; j++) {
+                int q = active[j];
+                int s = start[q];
+                start[q] = -1;
+                if (a < 0) continue;
+                int t = dfa.next(q, a);
+                if (t == CompiledDFA.DEAD) continue;
+                if (nextStart[t] < 0) {
+                    nextActive[moved++] = t;
+                    nextStart[t] = s;
+                } else if (s < nextStart[t]) {
+                    nextStart[t] = s;
+                }
+            }
+            int[] swap = start;
+            start = nextStart;
+            nextStart = swap;
+            swap = active;
+            active = nextActive;
+            nextActive = swap;
+            count = moved;
+        }
+
+        // Leave the scratch space clean for the next search
+        for (int j = 0; j < count; j++) {
+            start[active[j]] = -1;
+        }
+
+        return bestStart < 0 ? null : new Match(bestStart, bestEnd);
+    }
+}
@@ -0,0 +1,108 @@
+import java.util.Arrays;
+
+/**
+ * Classifies the states of a compiled transition table by what they can
+ * still lead to, so runs can stop as soon as the outcome is decided:
+ *     DEAD_END     no accept state can be reached from the state, so the
+ *                  input will be rejected whatever comes next
+ *     ABSORBING    the state accepts, and every letter of the alphabet leads
+ *                  to another absorbing state, so the input will be
+ *                  accepted as long as the rest of it is in the alphabet
+ *     LIVE         anything else
+ *
+ * Both are found by reachability on the reversed transitions:
+ *     - the states that can reach an accept state are found backwards from
+ *       the accept states, and every other state is a dead end
+ *     - a state is "spoiled" if it rejects or has a missing transition, and
+ *       the states that can reach a spoiled state are found backwards from
+ *       them; every state that is left is absorbing
+ * Each takes one pass over the transitions.
+ */
+final class StateAnalysis {
+
+    static final byte LIVE = 0;
+    static final byte DEAD_END = 1;
+    static final byte ABSORBING = 2;
+
+    private StateAnalysis() {
+    }
+
+    /**
+     * Classify every state of the table.
+     * @param table: The transitions, laid out as table[q * k + a], with -1
+     *             for the dead state
+     * @param n: The number of states
+     * @param k: The number of letters
+     * @param accepting: Flags for the accept states
+     * @return The: kind of each state
+     */
+    static byte[] classify(int[] table, int n, int k, boolean[] accepting) {
+        // Reverse the transitions: the states with a transition into q are
+        // sources[firstSource[q] .. firstSource[q + 1])
+        int[] firstSource = new int[n + 1];
+        for (int target : table) {
+            if (target >= 0) firstSource[target + 1]++;
+        }
+        for (int q = 0; q < n; q++) {
+            firstSource[q + 1] += firstSource[q];
+        }
+        int[] sources = new int[firstSource[n]];
+        int[] fill = Arrays.copyOf(firstSource, n);
+        for (int i = 0; i < table.length; i++) {
+            if (table[i] >= 0) sources[fill[table[i]]++] = i / k;
+        }
+
+        // Everything that can reach an accept state is alive
+        boolean[] alive = new boolean[n];
+        int[] queue = new int[n];
+        int size = 0;
+        for (int q = 0; q < n; q++) {
+            if (accepting[q]) {
+                alive[q] = true;
+                queue[size++] = q;
+            }
+        }
+        reachBackwards(alive, queue, size, firstSource, sources);
+
+        // Everything that can reach a rejecting state or the dead state is
+        // spoiled
+        boolean[] spoiled = new boolean[n];
+        size = 0;
+        for (int q = 0; q < n; q++) {
+            boolean bad = !accepting[q];
+            for (int a = 0; a < k && !bad; a++) {
+                bad = table[q * k + a] < 0;
+            }
+            if (bad) {
+                spoiled[q] = true;
+                queue[size++] = q;
+            }
+        }
+        reachBackwards(spoiled, queue, size, firstSource, sources);
+
+        byte[] kinds = new byte[n];
+        for (int q = 0; q < n; q++) {
+            kinds[q] = !alive[q] ? DEAD_END : !spoiled[q] ? ABSORBING : LIVE;
+        }
+        return kinds;
+    }
+
+    /*
+     * Helper method to mark every state that can reach one of the first
+     * 'size' states of the queue
+     */
+    private static void reachBackwards(boolean[] marked, int[] queue,
+                                       int size, int[] firstSource,
+                                       int[] sources) {
+        for (int head = 0; head < size; head++) {
+            int q = queue[head];
+            for (int i = firstSource[q]; i < firstSource[q + 1]; i++) {
+                int p = sources[i];
+                if (!marked[p]) {
+                    marked[p] = true;
+                    queue[size++] = p;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,141 @@
+import java.util.*;
+
+/**
+ * A set of states of an automaton (like its accept states), kept as a
+ * BitSet over the ids of the automaton's StateTable, so membership is one
+ * lookup of the name and one bit.
+ *
+ * A name can be added before it's added to the table (for instance a state
+ * marked as accepting while it's being parsed). Such names wait on the side
+ * until the table knows them.
+ */
+public final class StateSet extends AbstractSet<String> {
+
+    // The states the ids refer to
+    private final StateTable table;
+
+    // The ids of the states in the set
+    private final BitSet bits = new BitSet();
+
+    // Names that weren't in the table when they were added
+    private final Set<String> pending = new HashSet<>();
+
+    public StateSet(StateTable table) {
+        this.table = table;
+    }
+
+    /**
+     * @param id: The id of a state in the table
+     * @return True: if the state is in the set
+     */
+    public boolean containsId(int id) {
+        settle();
+        return bits.get(id);
+    }
+
+    /**
+     * @return A: copy of the ids of the states in the set
+     */
+    public BitSet ids() {
+        settle();
+        return (BitSet) bits.clone();
+    }
+
+    @Override
+    public boolean add(String name) {
+        int id = table.id(name);
+        if (id < 0) return pending.add(name);
+        if (bits.get(id) || pending.remove(name)) {
+            bits.set(id);
+            return false;
+        }
+        bits.set(id);
+        return true;
+    }
+
+    @Override
+    public boolean contains(Object o) {
+        int id = idOf(o);
+        return (id >= 0 && bits.get(id)) || pending.contains(o);
+    }
+
+    @Override
+    public boolean remove(Object o) {
+        int id = idOf(o);
+        if (id >= 0 && bits.get(id)) {
+            bits.clear(id);
+            pending.remove(o);
+            return true;
+        }
+        return pending.remove(o);
+    }
+
+    @Override
+    public void clear() {
+        bits.clear();
+        pending.clear();
+    }
+
+    @Override
+    public int size() {
+        settle();
+        return bits.cardinality() + pending.size();
+    }
+
+    @Override
+    public Iterator<String> iterator() {
+        settle();
+        // Iterate over a copy, so the set can be changed meanwhile
+        List<String> members = new ArrayList<>(size());
+        for (int q = bits.nextSetBit(0); q >= 0; q = bits.nextSetBit(q + 1)) {
+            members.add(table.name(q));
+        }
+        members.addAll(pending);
+        final Iterator<String> copy = members.iterator();
+        return new Iterator<String>() {
+            private String last;
+
+            @Override
+            public boolean hasNext() {
+                return copy.hasNext();
+            }
+
+            @Override
+            public String next() {
+                last = copy.next();
+                return last;
+            }
+
+            @Override
+            public void remove() {
+                if (last == null) throw new IllegalStateException();
+                StateSet.this.remove(last);
+                last = null;
+            }
+        };
+    }
+
+    /*
+     * Helper method to look up the id of a name given as any object, -1 if
+     * it isn't a state of the table
+     */
+    private int idOf(Object o) {
+        return o instanceof String ? table.id((String) o) : -1;
+    }
+
+    /*
+     * Helper method to move the pending names that the table now knows
+     * into the bits
+     */
+    private void settle() {
+        if (pending.isEmpty()) return;
+        Iterator<String> names = pending.iterator();
+        while (names.hasNext()) {
+            int id = table.id(names.next());
+            if (id >= 0) {
+                bits.set(id);
+                names.remove();
+            }
+        }
+    }
+}
@@ -0,0 +1,114 @@
+import java.util.*;
+
+/**
+ * The states of an automaton, numbered densely in the order they were
+ * added: the names are only needed for input and output, and everything
+ * else can work on the ids 0 .. size() - 1.
+ *
+ * Names are interned, so adding a name twice keeps the first id, and
+ * looking a name up (contains, id) takes constant time instead of scanning
+ * a list. States are never removed, so ids stay valid for the life of the
+ * table.
+ *
+ * intern(..) is the only way to add a state. The table can be iterated in
+ * id order, and names() gives a read-only List view for code that needs
+ * one.
+ */
+public final class StateTable implements Iterable<String> {
+
+    // The name of each id
+    private final List<String> names = new ArrayList<>();
+
+    // A read-only view of the names
+    private final List<String> view = Collections.unmodifiableList(names);
+
+    // The id of each name
+    private final Map<String, Integer> ids = new HashMap<>();
+
+    // Every "q<i>" with i below this is known to be taken
+    private int freshHint = 0;
+
+    /**
+     * @param name: The name of a state
+     * @return The: id of the state, or -1 if it isn't in the table
+     */
+    public int id(String name) {
+        Integer id = ids.get(name);
+        return id == null ? -1 : id;
+    }
+
+    /**
+     * @param id: The id of a state
+     * @return The: name of the state
+     */
+    public String name(int id) {
+        return names.get(id);
+    }
+
+    /**
+     * Add a state if it isn't in the table yet.
+     * @param name: The name of the state
+     * @return The: id of the state
+     */
+    public int intern(String name) {
+        Integer id = ids.get(name);
+        if (id == null) {
+            id = names.size();
+            ids.put(name, id);
+            names.add(name);
+        }
+        return id;
+    }
+
+    /**
+     * Find a state name of the form "q<i>" that isn't taken, as in
+     * FSA.getValidState().
+     * @return The: smallest such i, not counting ones handed out before
+     */
+    public int freshNumber() {
+        while (ids.containsKey("q" + freshHint)) {
+            freshHint++;
+        }
+        return freshHint;
+    }
+
+    /**
+     * @param name: The name of a state
+     * @return True: if the state is in the table
+     */
+    public boolean contains(String name) {
+        return ids.containsKey(name);
+    }
+
+    /**
+     * @return The: number of states
+     */
+    public int size() {
+        return names.size();
+    }
+
+    /**
+     * @return True: if there are no states
+     */
+    public boolean isEmpty() {
+        return names.isEmpty();
+    }
+
+    /**
+     * @return A: read-only view of the names, indexed by id, which follows
+     *          the states added later
+     */
+    public List<String> names() {
+        return view;
+    }
+
+    @Override
+    public Iterator<String> iterator() {
+        return view.iterator();
+    }
+
+    @Override
+    public String toString() {
+        return names.toString();
+    }
+}
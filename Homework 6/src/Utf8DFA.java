@@ -0,0 +1,237 @@
+import java.util.*;
+
+/**
+ * Compiles a DFA over characters into an equivalent DFA over the bytes of
+ * their UTF-8 encoding, so UTF-8 input can be matched without decoding it.
+ *
+ * The byte-level matcher is an ordinary CompiledDFA whose letters are the
+ * chars 0 to 255, each standing for the byte with that value. That's the
+ * same reading the byte runs already use (runBytes(..), scan(..) and
+ * matchesBytes(..)), so all of them run it over raw UTF-8 directly.
+ *
+ * Each transition G(q, c) = t is spelled out as the 1 to 4 bytes encoding
+ * c, through fresh states in between:
+ *     q --b_1--> (q, b_1) --b_2--> (q, b_1 b_2) --b_3--> t
+ * so the in-between states form a trie of the byte prefixes leaving q.
+ * Every byte is either ASCII, a lead byte or a continuation byte, so a
+ * prefix can never also be a whole letter, and the trie is deterministic.
+ * Anything that isn't the encoding of a letter (stray continuation bytes,
+ * truncated or overlong sequences, encoded surrogates) falls off the trie
+ * into the dead state, so malformed input is rejected.
+ *
+ * The tries of different states often share their tails (the last byte of
+ * every letter in a block of 64 code points leads the same way), so the
+ * result is minimized with Hopcroft's algorithm (see FSA.minimize(..)).
+ *
+ * DFA letters are single chars, so a character outside the Basic
+ * Multilingual Plane (an emoji, say) is read as its surrogate pair, in two
+ * steps G(G(q, h), l) = t. Those are joined into one 4 byte sequence from q
+ * to t, for every high surrogate h leaving q and low surrogate l leaving
+ * its target. A surrogate that isn't part of such a pair has no UTF-8
+ * encoding, so it's dropped.
+ */
+public final class Utf8DFA {
+
+    // The number of byte values
+    private static final int BYTES = 256;
+
+    private Utf8DFA() {
+    }
+
+    /**
+     * Build the byte-level matcher for a compiled DFA.
+     * @param chars: A matcher over characters
+     * @return A: minimal matcher over UTF-8 bytes, accepting exactly the
+     *          encodings of the strings 'chars' accepts
+     */
+    public static CompiledDFA compile(CompiledDFA chars) {
+        int n = chars.stateCount();
+        int k = chars.alphabetSize();
+
+        // The byte transitions of every state, the original states first
+        List<int[]> rows = new ArrayList<>();
+        for (int q = 0; q < n; q++) {
+            rows.add(emptyRow());
+        }
+        byte[] encoded = new byte[4];
+        for (int q = 0; q < n; q++) {
+            for (int a = 0; a < k; a++) {
+                int target = chars.next(q, a);
+                char c = chars.symbolAt(a);
+                if (target == CompiledDFA.DEAD || Character.isLowSurrogate(c)) {
+                    continue;
+                }
+                if (!Character.isHighSurrogate(c)) {
+                    insert(rows, q, encoded, encode(c, encoded), target);
+                    continue;
+                }
+
+                // A supplementary character is two steps of the DFA (its
+                // surrogate pair), but a single 4 byte sequence, so join the
+                // high surrogate with every low one leaving its target
+                for (int b = 0; b < k; b++) {
+                    char low = chars.symbolAt(b);
+                    int end = chars.next(target, b);
+                    if (end == CompiledDFA.DEAD
+                            || !Character.isLowSurrogate(low)) {
+                        continue;
+                    }
+                    insert(rows, q, encoded,
+                            encode(Character.toCodePoint(c, low), encoded),
+                            end);
+                }
+            }
+        }
+
+        // Only keep the byte values that occur, as the letters
+        boolean[] used = new boolean[BYTES];
+        for (int[] row : rows) {
+            for (int b = 0; b < BYTES; b++) {
+                used[b] |= row[b] != CompiledDFA.DEAD;
+            }
+        }
+        StringBuilder letters = new StringBuilder();
+        for (int b = 0; b < BYTES; b++) {
+            if (used[b]) letters.append((char) b);
+        }
+        char[] symbols = letters.toString().toCharArray();
+        int width = symbols.length;
+
+        // Lay the transitions out as a complete table, with an explicit
+        // dead state numbered 'states', as Hopcroft's algorithm needs
+        int states = rows.size();
+        int total = states + 1;
+        int[] table = new int[total * width];
+        boolean[] accepting = new boolean[total];
+        for (int q = 0; q < states; q++) {
+            int[] row = rows.get(q);
+            for (int a = 0; a < width; a++) {
+                int next = row[symbols[a]];
+                table[q * width + a] = next == CompiledDFA.DEAD ? states
+                        : next;
+            }
+            accepting[q] = q < n && chars.isAccepting(q);
+        }
+        Arrays.fill(table, states * width, total * width, states);
+
+        return quotient(chars, table, total, width, symbols, accepting,
+                FSA.hopcroftBlocks(table, total, width, accepting));
+    }
+
+    /*
+     * Helper method to merge each block of equivalent states into one,
+     * keeping only the blocks reachable from the start state, and dropping
+     * the dead state's block
+     */
+    private static CompiledDFA quotient(CompiledDFA chars, int[] table,
+                                        int total, int width,
+                                        char[] symbols, boolean[] accepting,
+                                        int[] block) {
+        int dead = block[total - 1];
+        // * A DFA accepting nothing keeps a single rejecting state
+        if (block[0] == dead) {
+            return CompiledDFA.fromTable(chars.label + " (UTF-8)",
+                    new String[] { chars.stateName(0) }, symbols,
+                    filled(width), new boolean[1]);
+        }
+
+        // Number the blocks breadth first from the start state's, keeping
+        // a member of each to read its transitions from
+        int[] ids = new int[total];
+        Arrays.fill(ids, -1);
+        List<Integer> members = new ArrayList<>();
+        ids[block[0]] = 0;
+        members.add(0);
+        for (int id = 0; id < members.size(); id++) {
+            int q = members.get(id);
+            for (int a = 0; a < width; a++) {
+                int next = table[q * width + a];
+                if (block[next] != dead && ids[block[next]] < 0) {
+                    ids[block[next]] = members.size();
+                    members.add(next);
+                }
+            }
+        }
+
+        int m = members.size();
+        String[] names = new String[m];
+        boolean[] merged = new boolean[m];
+        int[] reduced = new int[m * width];
+        for (int id = 0; id < m; id++) {
+            int q = members.get(id);
+            // The original states keep their names, and the states inside
+            // a letter get fresh ones
+            names[id] = q < chars.stateCount() ? chars.stateName(q)
+                    : "u" + q;
+            merged[id] = accepting[q];
+            for (int a = 0; a < width; a++) {
+                int next = block[table[q * width + a]];
+                reduced[id * width + a] = next == dead ? CompiledDFA.DEAD
+                        : ids[next];
+            }
+        }
+        return CompiledDFA.fromTable(chars.label + " (UTF-8)", names,
+                symbols, reduced, merged);
+    }
+
+    /*
+     * Helper method to add the path spelling out the first 'length' bytes
+     * of 'encoded' from q to the target, following (or growing) the trie of
+     * q along all but the last byte
+     */
+    private static void insert(List<int[]> rows, int q, byte[] encoded,
+                               int length, int target) {
+        int state = q;
+        for (int j = 0; j < length - 1; j++) {
+            int b = encoded[j] & 0xFF;
+            if (rows.get(state)[b] == CompiledDFA.DEAD) {
+                rows.get(state)[b] = rows.size();
+                rows.add(emptyRow());
+            }
+            state = rows.get(state)[b];
+        }
+        rows.get(state)[encoded[length - 1] & 0xFF] = target;
+    }
+
+    /*
+     * Helper method to write the UTF-8 encoding of a code point (not a
+     * surrogate), returning its length
+     */
+    static int encode(int c, byte[] out) {
+        if (c < 0x80) {
+            out[0] = (byte) c;
+            return 1;
+        } else if (c < 0x800) {
+            out[0] = (byte) (0xC0 | c >> 6);
+            out[1] = (byte) (0x80 | (c & 0x3F));
+            return 2;
+        } else if (c < 0x10000) {
+            out[0] = (byte) (0xE0 | c >> 12);
+            out[1] = (byte) (0x80 | (c >> 6 & 0x3F));
+            out[2] = (byte) (0x80 | (c & 0x3F));
+            return 3;
+        } else {
+            out[0] = (byte) (0xF0 | c >> 18);
+            out[1] = (byte) (0x80 | (c >> 12 & 0x3F));
+            out[2] = (byte) (0x80 | (c >> 6 & 0x3F));
+            out[3] = (byte) (0x80 | (c & 0x3F));
+            return 4;
+        }
+    }
+
+    /*
+     * Helper method for a row of byte transitions, all to the dead state
+     */
+    private static int[] emptyRow() {
+        return filled(BYTES);
+    }
+
+    /*
+     * Helper method for a row of the given length, all to the dead state
+     */
+    private static int[] filled(int length) {
+        int[] row = new int[length];
+        Arrays.fill(row, CompiledDFA.DEAD);
+        return row;
+    }
+}
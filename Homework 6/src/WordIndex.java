@@ -0,0 +1,178 @@
+import java.util.*;
+
+/**
+ * Numbers the words of a finite language densely, 0 to size() - 1 in
+ * sorted order, straight from its DFA: a minimal perfect hash that needs
+ * no table beyond the automaton, so payloads can be kept in an array
+ * indexed by word.
+ *
+ * Every state q is annotated with the number of words its right language
+ * has (the words leading from q to an accept state):
+ *     count(q) = [q accepts] + sum over a of count(G(q, a))
+ * which is finite exactly when no cycle is reachable and live. The index
+ * of a word is then the number of words that sort before it: walking the
+ * word from the start state, each step adds the words of the smaller
+ * letters' targets, plus one for every prefix of the word that's accepted.
+ * wordAt(..) walks the same sums the other way round.
+ *
+ * Words are sorted letter by letter on the char values, like
+ * String.compareTo(..), whatever order the alphabet was defined in. So the
+ * index of a word in a DFA built from a sorted, duplicate free list (see
+ * DawgBuilder) is its position in the list.
+ */
+public final class WordIndex {
+
+    // The automaton, with dead ends already sent to the dead state
+    private final CompiledDFA dfa;
+
+    // The number of words in the right language of each state
+    private final int[] counts;
+
+    // The symbol ids in the order of their letters
+    private final int[] order;
+
+    /**
+     * Annotate a compiled DFA with the sizes of its right languages.
+     * @param dfa: A matcher for a finite language
+     * @throws IllegalArgumentException if the language is infinite, or has
+     *          more than Integer.MAX_VALUE words
+     */
+    public WordIndex(CompiledDFA dfa) {
+        this.dfa = dfa;
+        int k = dfa.alphabetSize();
+        Integer[] sorted = new Integer[k];
+        for (int a = 0; a < k; a++) {
+            sorted[a] = a;
+        }
+        Arrays.sort(sorted, Comparator.comparingInt(dfa::symbolAt));
+        order = new int[k];
+        for (int a = 0; a < k; a++) {
+            order[a] = sorted[a];
+        }
+        counts = countWords(dfa);
+    }
+
+    /*
+     * Helper method to count the right languages in reverse topological
+     * order, with an explicit depth first search (the words can be long)
+     */
+    private static int[] countWords(CompiledDFA dfa) {
+        int n = dfa.stateCount();
+        int k = dfa.alphabetSize();
+        // 0 = unvisited, 1 = on the stack, 2 = counted
+        byte[] color = new byte[n];
+        int[] counts = new int[n];
+        int[] stack = new int[n];
+        int[] nextSymbol = new int[n];
+        int size = 0;
+
+        int start = dfa.startState();
+        if (dfa.isDeadEnd(start)) return counts;
+        stack[size++] = start;
+        color[start] = 1;
+        while (size > 0) {
+            int q = stack[size - 1];
+            if (nextSymbol[q] < k) {
+                int t = dfa.next(q, nextSymbol[q]++);
+                if (t == CompiledDFA.DEAD || color[t] == 2) continue;
+                if (color[t] == 1) {
+                    throw new IllegalArgumentException(dfa.label
+                            + " accepts infinitely many words");
+                }
+                color[t] = 1;
+                stack[size++] = t;
+                continue;
+            }
+
+            // Every child is counted, so this state can be
+            long count = dfa.isAccepting(q) ? 1 : 0;
+            for (int a = 0; a < k; a++) {
+                int t = dfa.next(q, a);
+                if (t != CompiledDFA.DEAD) count += counts[t];
+            }
+            if (count > Integer.MAX_VALUE) {
+                throw new IllegalArgumentException(dfa.label
+                        + " has too many words to index");
+            }
+            counts[q] = (int) count;
+            color[q] = 2;
+            size--;
+        }
+        return counts;
+    }
+
+    /**
+     * @return The: number of words in the language
+     */
+    public int size() {
+        int start = dfa.startState();
+        return dfa.isDeadEnd(start) ? 0 : counts[start];
+    }
+
+    /**
+     * Find the index of a word.
+     * @param word: The word to look up
+     * @return The: number of words in the language sorting before it, or -1
+     *          if the word isn't in the language
+     */
+    public int indexOf(CharSequence word) {
+        int q = dfa.startState();
+        if (dfa.isDeadEnd(q)) return -1;
+        int index = 0;
+        for (int i = 0, n = word.length(); i < n; i++) {
+            char c = word.charAt(i);
+            int a = dfa.symbolOf(c);
+            if (a < 0) return -1;
+            // The prefix read so far sorts before the word
+            if (dfa.isAccepting(q)) index++;
+            // So does every word continuing with a smaller letter
+            for (int b : order) {
+                if (dfa.symbolAt(b) >= c) break;
+                int t = dfa.next(q, b);
+                if (t != CompiledDFA.DEAD) index += counts[t];
+            }
+            q = dfa.next(q, a);
+            if (q == CompiledDFA.DEAD) return -1;
+        }
+        return dfa.isAccepting(q) ? index : -1;
+    }
+
+    /**
+     * Find the word with the given index.
+     * @param index: A number from 0 to size() - 1
+     * @return The: word with exactly 'index' words sorting before it
+     * @throws IndexOutOfBoundsException if there is no such word
+     */
+    public String wordAt(int index) {
+        if (index < 0 || index >= size()) {
+            throw new IndexOutOfBoundsException("No word " + index + " in "
+                    + dfa.label);
+        }
+        StringBuilder word = new StringBuilder();
+        int q = dfa.startState();
+        for (;;) {
+            if (dfa.isAccepting(q)) {
+                if (index == 0) return word.toString();
+                index--;
+            }
+            // Skip the letters whose words all sort before the one wanted
+            for (int b : order) {
+                int t = dfa.next(q, b);
+                if (t == CompiledDFA.DEAD) continue;
+                if (index < counts[t]) {
+                    word.append(dfa.symbolAt(b));
+                    q = t;
+                    break;
+                }
+                index -= counts[t];
+            }
+        }
+    }
+
+    /**
+     * @return The: matcher the index was built on
+     */
+    public CompiledDFA matcher() {
+        return dfa;
+    }
+}